@@ -0,0 +1,50 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Running all benchmarks with GC profiler for each thread count, results written as JSON
+ * for comparing with regression budgets.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar [threads...] [-Dinclude=regex] [-Dresult=dir]
+ * </pre>
+ * Using `java -cp benchmarks/target/benchmarks.jar org.openjdk.jmh.Main` for other JMH options.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        String[] threads = args.length > 0 ? args : new String[] {"1", "4"};
+        String include = System.getProperty("include", "io.github.eshizhan.benchmarks.*");
+        String result = System.getProperty("result", ".");
+        for (String t : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(t))
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result + "/funcwraps-benchmarks-t" + t + ".json");
+            new Runner(options.build()).run();
+        }
+    }
+}
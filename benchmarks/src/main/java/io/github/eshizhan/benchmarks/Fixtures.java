@@ -0,0 +1,78 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.benchmarks;
+
+import io.github.eshizhan.funcwraps.Dispatch;
+import io.github.eshizhan.funcwraps.LRUCacheWrapper;
+import io.github.eshizhan.funcwraps.MetricsWrapper;
+import io.github.eshizhan.funcwraps.Wraps;
+import io.github.eshizhan.funcwraps.jfr.JfrWrapper;
+
+/**
+ * Methods with same body wrapped by each kind of bridge, transformed by funcwraps-maven-plugin.
+ */
+public class Fixtures {
+    public long direct(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = Wrappers.class, method = "wrap")
+    public long reflect(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = Wrappers.class, method = "wrapWithParams(param1, param2)")
+    public long reflectWithParams(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = Wrappers.class, method = "wrapCopy", copyToTarget = true)
+    public long copy(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = Wrappers.class, method = "wrapHandle", dispatch = Dispatch.INDY)
+    public long indy(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = Wrappers.class, method = "wrapInvocation")
+    public long invocation(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = MetricsWrapper.class, method = "wrap")
+    public long metrics(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = MetricsWrapper.class, method = "wrap", sample = 1.0 / 1000)
+    public long metricsSampled(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = JfrWrapper.class, method = "wrap")
+    public long jfr(long x, String s) {
+        return x * 31 + s.length();
+    }
+
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(1024)")
+    public Long cached(long x, String s) {
+        return x * 31 + s.length();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of each kind of bridge compared with direct calling.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WrappedCallBenchmark {
+    private Fixtures fixtures;
+    private long x;
+    private String s;
+
+    @Setup
+    public void setup() {
+        fixtures = new Fixtures();
+        x = 42;
+        s = "funcwraps";
+    }
+
+    @Benchmark
+    public long direct() {
+        return fixtures.direct(x, s);
+    }
+
+    @Benchmark
+    public long reflect() {
+        return fixtures.reflect(x, s);
+    }
+
+    @Benchmark
+    public long reflectWithParams() {
+        return fixtures.reflectWithParams(x, s);
+    }
+
+    @Benchmark
+    public long copyToTarget() {
+        return fixtures.copy(x, s);
+    }
+
+    @Benchmark
+    public long indy() {
+        return fixtures.indy(x, s);
+    }
+
+    @Benchmark
+    public long invocation() {
+        return fixtures.invocation(x, s);
+    }
+
+    @Benchmark
+    public long metrics() {
+        return fixtures.metrics(x, s);
+    }
+
+    @Benchmark
+    public long metricsSampled() {
+        return fixtures.metricsSampled(x, s);
+    }
+
+    /**
+     * Without JFR recording.
+     */
+    @Benchmark
+    public long jfr() {
+        return fixtures.jfr(x, s);
+    }
+}
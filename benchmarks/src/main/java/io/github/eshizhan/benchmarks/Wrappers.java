@@ -0,0 +1,51 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.benchmarks;
+
+import io.github.eshizhan.funcwraps.Invocation;
+import io.github.eshizhan.funcwraps.ProceedMarker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+
+/**
+ * Pass-through wrappers, measuring the cost of wrapping only.
+ */
+public class Wrappers {
+    public static Object wrap(Method method, Object[] args, Object target) throws Throwable {
+        return method.invoke(target, args);
+    }
+
+    public static Object wrapWithParams(Method method, Object[] args, Object target, String[] wrapParams)
+            throws Throwable {
+        return method.invoke(target, args);
+    }
+
+    public Object wrapCopy(Method method, Object[] args, Object target) throws Throwable {
+        Long ret = ProceedMarker.proceed();
+        return ret;
+    }
+
+    public static Object wrapHandle(MethodHandle method, Object[] args, Object target) throws Throwable {
+        return method.invoke(target, args);
+    }
+
+    public static void wrapInvocation(Invocation invocation) throws Throwable {
+        invocation.proceed();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.jfr;
+
+import io.github.eshizhan.funcwraps.Invocation;
+import io.github.eshizhan.funcwraps.WrapSite;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Emitting JFR event `io.github.eshizhan.funcwraps.WrappedMethod` for calling of wrapped method,
+ * using as `&#064;Wraps(clazz = JfrWrapper.class, method = "wrap")`, or `wrap(args)` for recording summary
+ * of arguments as well.
+ *
+ * <p> The event is committed only when enabled by a running recording and over threshold, otherwise
+ * the event object is eliminated by JIT, and arguments are never formatted, so it is close to zero cost
+ * without recording. The typed {@link #wrap(Invocation)} is selected if available.
+ *
+ * <p> For method returning `CompletableFuture` or `CompletionStage`, the event ends when the future completed.
+ *
+ * <p> Released in separate module `funcwraps-jfr` requiring Java 11, the core module keeps running on Java 8.
+ */
+public class JfrWrapper {
+    static final int MAX_ARGUMENTS_LENGTH = 256;
+
+    private static final Map<Method, JfrSite> methodMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param invocation    `invocation.site().getWrapParams()` is `args` for recording arguments.
+     */
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrappedMethodEvent event = new WrappedMethodEvent();
+        if (!event.isEnabled()) {
+            invocation.proceed();
+            return;
+        }
+        JfrSite site = invocation.site().attachment(JfrSite::new);
+        event.begin();
+        try {
+            invocation.proceed();
+        } catch (Throwable e) {
+            end(event, site, site.recordArguments ? summarize(invocation) : null, e);
+            throw e;
+        }
+        Object result;
+        if (invocation.site().isAsync() && (result = invocation.result()) != null) {
+            // arguments are only available before wrapper returned
+            String arguments = site.recordArguments ? summarize(invocation) : null;
+            ((CompletionStage<?>) result).whenComplete((value, e) -> end(event, site, arguments, e));
+        } else {
+            end(event, site, site.recordArguments ? summarize(invocation) : null, null);
+        }
+    }
+
+    public static Object wrap(Method method, Object[] args, Object target) throws Throwable {
+        WrappedMethodEvent event = new WrappedMethodEvent();
+        if (!event.isEnabled())
+            return method.invoke(target, args);
+        JfrSite site = methodMap.get(method);
+        if (site == null)
+            site = methodMap.computeIfAbsent(method, JfrSite::new);
+        event.begin();
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (Throwable e) {
+            end(event, site, null, e);
+            throw e;
+        }
+        if (result instanceof CompletionStage && site.async) {
+            JfrSite jfrSite = site;
+            ((CompletionStage<?>) result).whenComplete((value, e) -> end(event, jfrSite, null, e));
+        } else {
+            end(event, site, null, null);
+        }
+        return result;
+    }
+
+    /**
+     * @param thrown    null if returned normally.
+     */
+    private static void end(WrappedMethodEvent event, JfrSite site, String arguments, Throwable thrown) {
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.method = site.signature;
+        event.arguments = arguments;
+        if ((thrown instanceof InvocationTargetException || thrown instanceof CompletionException)
+                && thrown.getCause() != null)
+            thrown = thrown.getCause();
+        if (thrown != null)
+            event.exception = thrown.getClass().getName();
+        event.commit();
+    }
+
+    private static String summarize(Invocation invocation) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < invocation.argCount() && sb.length() < MAX_ARGUMENTS_LENGTH; i++) {
+            if (i > 0)
+                sb.append(", ");
+            Object arg = invocation.arg(i);
+            if (arg != null && arg.getClass().isArray()) {
+                String array = Arrays.deepToString(new Object[] {arg});
+                sb.append(array, 1, array.length() - 1);
+            } else {
+                sb.append(arg);
+            }
+        }
+        if (sb.length() >= MAX_ARGUMENTS_LENGTH) {
+            sb.setLength(MAX_ARGUMENTS_LENGTH - 3);
+            return sb.append("...").toString();
+        }
+        return sb.append("]").toString();
+    }
+
+    private static final class JfrSite {
+        final String signature;
+        final boolean recordArguments;
+        final boolean async;
+
+        JfrSite(WrapSite site) {
+            this.signature = site.signature();
+            this.recordArguments = Arrays.asList(site.getWrapParams()).contains("args");
+            this.async = site.isAsync();
+        }
+
+        JfrSite(Method method) {
+            this.signature = WrapSite.signature(method);
+            this.recordArguments = false;
+            this.async = WrapSite.isAsync(method.getReturnType());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of calling a method wrapped by {@link JfrWrapper}, the duration is the calling time.
+ * Stack trace is disabled by default for low overhead, it can be enabled by JFR settings as well as threshold.
+ */
+@Name(WrappedMethodEvent.NAME)
+@Label("Wrapped Method")
+@Category("funcwraps")
+@Description("Calling of method wrapped by funcwraps")
+@StackTrace(false)
+final class WrappedMethodEvent extends Event {
+    static final String NAME = "io.github.eshizhan.funcwraps.WrappedMethod";
+
+    @Label("Method")
+    @Description("Signature of wrapped method")
+    String method;
+
+    @Label("Arguments")
+    @Description("Summary of arguments, recorded with wrapper parameter `args`")
+    String arguments;
+
+    @Label("Exception")
+    @Description("Class name of exception thrown")
+    String exception;
+}
@@ -0,0 +1,126 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.maven;
+
+import io.github.eshizhan.funcwraps.ChildClassPool;
+import io.github.eshizhan.funcwraps.WrapsProcessor;
+import javassist.ClassPool;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Processing classes in-process, the class pool of JDK and funcwraps classes is kept warm
+ * and shared by all modules of reactor and all workers.
+ */
+public abstract class AbstractWrapsMojo extends AbstractMojo {
+    /**
+     * Not locking on shared class pool, which is locked by workers for looking up classes.
+     */
+    private static final Object SHARED_LOCK = new Object();
+    private static ClassPool sharedClassPool;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    protected MavenProject project;
+
+    @Component
+    private BuildContext buildContext;
+
+    /**
+     * Count of threads for processing classes.
+     */
+    @Parameter(property = "funcwraps.workers", defaultValue = "1")
+    private int workers;
+
+    /**
+     * Skipping classes unchanged since last processing.
+     */
+    @Parameter(property = "funcwraps.incremental", defaultValue = "true")
+    private boolean incremental;
+
+    /**
+     * Printing every transformed method.
+     */
+    @Parameter(property = "funcwraps.verbose", defaultValue = "false")
+    private boolean verbose;
+
+    @Parameter(property = "funcwraps.skip", defaultValue = "false")
+    private boolean skip;
+
+    protected abstract File getClassesDirectory();
+
+    protected abstract List<String> getClasspathElements() throws DependencyResolutionRequiredException;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        File classesDirectory = getClassesDirectory();
+        if (skip) {
+            getLog().info("skip processing classes by funcwraps");
+            return;
+        }
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("no classes to process: " + classesDirectory);
+            return;
+        }
+        try {
+            // build context is incremental only in IDE, manifest is checked on command line
+            if (buildContext.isIncremental() ? !buildContext.hasDelta(classesDirectory) :
+                    incremental && WrapsProcessor.isUpToDate(classesDirectory.toPath())) {
+                getLog().info("classes unchanged, skip processing: " + classesDirectory);
+                return;
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("failed to read classes in " + classesDirectory, e);
+        }
+
+        ClassPool parent = getSharedClassPool();
+        // shared class pool is not thread-safe for parallel builds
+        synchronized (SHARED_LOCK) {
+            try {
+                WrapsProcessor wrapsProcessor = new WrapsProcessor(new ChildClassPool(parent),
+                        classesDirectory.toPath());
+                for (String element : getClasspathElements()) {
+                    if (!element.equals(classesDirectory.getPath()) && new File(element).exists())
+                        wrapsProcessor.appendClassPath(element);
+                }
+                wrapsProcessor.setWorkers(workers);
+                wrapsProcessor.setIncremental(incremental);
+                wrapsProcessor.setLog(verbose ? getLog()::info : getLog()::debug);
+                int processed = wrapsProcessor.processClassPath();
+                getLog().info("funcwraps processed " + processed + " methods in " + classesDirectory);
+            } catch (Exception e) {
+                throw new MojoExecutionException("failed to process classes in " + classesDirectory, e);
+            }
+        }
+        buildContext.refresh(classesDirectory);
+    }
+
+    private static synchronized ClassPool getSharedClassPool() {
+        if (sharedClassPool == null)
+            sharedClassPool = new ClassPool(true);
+        return sharedClassPool;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.maven;
+
+import io.github.eshizhan.funcwraps.ChildClassPool;
+import javassist.ClassPool;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessClassesMojoTest
+{
+    @Test
+    public void testProcessClasses() throws Exception
+    {
+        System.out.println("starting testProcessClasses");
+        Path dir = Files.createTempDirectory("funcwraps-mojo");
+        try {
+            Path source = dir.resolve("src/demo/Demo.java");
+            Files.createDirectories(source.getParent());
+            Files.write(source, Arrays.asList(
+                    "package demo;",
+                    "import io.github.eshizhan.funcwraps.Invocation;",
+                    "import io.github.eshizhan.funcwraps.Wraps;",
+                    "public class Demo {",
+                    "    @Wraps(clazz = Demo.class, method = \"twice\")",
+                    "    public int add(int x, int y) {",
+                    "        return x + y;",
+                    "    }",
+                    "    public static void twice(Invocation invocation) throws Throwable {",
+                    "        invocation.setIntResult(invocation.proceedInt() * 2);",
+                    "    }",
+                    "}"));
+            Path classes = Files.createDirectories(dir.resolve("classes"));
+            assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-proc:none",
+                    "-classpath", System.getProperty("java.class.path"), "-d", classes.toString(), source.toString()));
+
+            List<String> messages = new CopyOnWriteArrayList<>();
+            ProcessClassesMojo mojo = newMojo(classes.toFile(), messages);
+            mojo.execute();
+            assertTrue(messages.toString(), messages.contains("funcwraps processed 1 methods in " + classes));
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()},
+                    getClass().getClassLoader())) {
+                Class<?> demo = loader.loadClass("demo.Demo");
+                Method add = demo.getMethod("add", int.class, int.class);
+                assertEquals(6, add.invoke(demo.newInstance(), 1, 2));
+            }
+
+            // unchanged classes are skipped by manifest on command line, without resolving class path
+            messages.clear();
+            mojo.execute();
+            assertEquals(Arrays.asList("classes unchanged, skip processing: " + classes), messages);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                    Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testChildClassPool() throws Exception
+    {
+        System.out.println("starting testChildClassPool");
+        ClassPool parent = new ClassPool(true);
+        ClassPool child = new ChildClassPool(parent);
+        child.appendClassPath(System.getProperty("java.home"));
+        // JDK classes are resolved by parent even if child has them in its class path
+        assertSame(parent.get("java.lang.Object"), child.get("java.lang.Object"));
+        assertSame(child.get("java.lang.String"), new ChildClassPool(parent).get("java.lang.String"));
+    }
+
+    private static ProcessClassesMojo newMojo(File classes, List<String> messages) throws Exception {
+        ProcessClassesMojo mojo = new ProcessClassesMojo();
+        setField(ProcessClassesMojo.class, mojo, "classesDirectory", classes);
+        setField(AbstractWrapsMojo.class, mojo, "project", new MavenProject());
+        setField(AbstractWrapsMojo.class, mojo, "buildContext", new DefaultBuildContext());
+        setField(AbstractWrapsMojo.class, mojo, "workers", 2);
+        setField(AbstractWrapsMojo.class, mojo, "incremental", true);
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void info(CharSequence content) {
+                messages.add(content.toString());
+            }
+        });
+        return mojo;
+    }
+
+    private static void setField(Class<?> clazz, Object object, String name, Object value) throws Exception {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+}
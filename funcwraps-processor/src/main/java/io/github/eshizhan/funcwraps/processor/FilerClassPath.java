@@ -0,0 +1,85 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.processor;
+
+import javassist.ClassPath;
+import javassist.NotFoundException;
+
+import javax.annotation.processing.Filer;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Class path of javassist reading classes by the `Filer` of javac from the compiling class path,
+ * so classes of dependencies are resolved as same as compiling.
+ */
+class FilerClassPath implements ClassPath {
+    private final Filer filer;
+
+    FilerClassPath(Filer filer) {
+        this.filer = filer;
+    }
+
+    @Override
+    public InputStream openClassfile(String classname) throws NotFoundException {
+        FileObject file = getResource(classname);
+        if (file == null)
+            return null;
+        try {
+            return file.openInputStream();
+        } catch (IOException e) {
+            throw new NotFoundException(classname, e);
+        }
+    }
+
+    @Override
+    public URL find(String classname) {
+        FileObject file = getResource(classname);
+        if (file == null)
+            return null;
+        try {
+            return file.toUri().toURL();
+        } catch (MalformedURLException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private FileObject getResource(String classname) {
+        int index = classname.lastIndexOf('.');
+        String pkg = index < 0 ? "" : classname.substring(0, index);
+        String relativeName = classname.substring(index + 1) + ".class";
+        try {
+            FileObject file = filer.getResource(StandardLocation.CLASS_PATH, pkg, relativeName);
+            // probing without opening, not found if it can not be read
+            try (InputStream in = file.openInputStream()) {
+                return file;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "javac class path";
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps.processor;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import io.github.eshizhan.funcwraps.Wraps;
+import io.github.eshizhan.funcwraps.WrapsProcessor;
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Processing `@Wraps` at compiling time by javac, instead of processing classes after building
+ * or by java agent. Javassist is needed only in the annotation processor path.
+ *
+ * <p> Annotation processors can not change classes being compiled, so this processor only records
+ * the classes declaring annotated methods, and registers a `TaskListener` of javac, rewriting the class
+ * files by {@link WrapsProcessor} after javac written them. The bridge methods are same as processed after
+ * building. Since JDK 9 classes are rewritten after the whole compilation, so wrapper classes compiled together
+ * are resolved, on JDK 8 each class is rewritten after generated.
+ *
+ * <p> Other classes are resolved from the class output and the compiling class path by `Filer`.
+ */
+public class WrapsAnnotationProcessor extends AbstractProcessor implements TaskListener {
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final boolean deferred = Arrays.stream(TaskEvent.Kind.values())
+            .anyMatch(kind -> kind.name().equals("COMPILATION"));
+    private boolean enabled;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        try {
+            JavacTask.instance(processingEnv).addTaskListener(this);
+            enabled = true;
+        } catch (IllegalArgumentException | NoClassDefFoundError e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "funcwraps processor requires javac, @Wraps are not processed: " + e);
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(Wraps.class.getCanonicalName(), Wraps.List.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!enabled)
+            return false;
+        Set<Element> methods = new LinkedHashSet<>(roundEnv.getElementsAnnotatedWith(Wraps.class));
+        methods.addAll(roundEnv.getElementsAnnotatedWith(Wraps.List.class));
+        for (Element method : methods) {
+            TypeElement type = (TypeElement) method.getEnclosingElement();
+            pending.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+        }
+        // not claiming, other processors may also process `@Wraps`
+        return false;
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+        if (pending.isEmpty())
+            return;
+        if (deferred && event.getKind().name().equals("COMPILATION")) {
+            transform(pending);
+            pending.clear();
+        } else if (!deferred && event.getKind() == TaskEvent.Kind.GENERATE) {
+            String className = processingEnv.getElementUtils().getBinaryName(event.getTypeElement()).toString();
+            if (pending.remove(className))
+                transform(Collections.singleton(className));
+        }
+    }
+
+    private void transform(Set<String> classNames) {
+        try {
+            Path classOutput = Paths.get(processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", WrapsProcessor.class.getSimpleName()).toUri())
+                    .getParent();
+            ClassPool classPool = new ClassPool(true);
+            classPool.appendClassPath(classOutput.toString());
+            classPool.appendClassPath(new FilerClassPath(processingEnv.getFiler()));
+            WrapsProcessor wrapsProcessor = new WrapsProcessor(classPool);
+            wrapsProcessor.setLog(message -> processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message));
+            for (String className : classNames) {
+                Path classFile = classOutput.resolve(className.replace('.', '/') + ".class");
+                // not generated if compiling failed
+                if (!Files.exists(classFile))
+                    continue;
+                CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(Files.readAllBytes(classFile)));
+                wrapsProcessor.processClass(ctClass);
+                if (ctClass.isModified())
+                    Files.write(classFile, ctClass.toBytecode());
+                ctClass.detach();
+            }
+        } catch (Exception e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "failed to process @Wraps: " + e);
+        }
+    }
+}
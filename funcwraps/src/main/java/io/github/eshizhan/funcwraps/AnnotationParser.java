@@ -18,14 +18,20 @@
 package io.github.eshizhan.funcwraps;
 
 import javassist.ClassPool;
+import javassist.CtClass;
 import javassist.CtMethod;
 import javassist.Modifier;
 import javassist.NotFoundException;
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.Descriptor;
 import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.AnnotationMemberValue;
+import javassist.bytecode.annotation.ArrayMemberValue;
 import javassist.bytecode.annotation.BooleanMemberValue;
 import javassist.bytecode.annotation.ClassMemberValue;
+import javassist.bytecode.annotation.DoubleMemberValue;
+import javassist.bytecode.annotation.EnumMemberValue;
+import javassist.bytecode.annotation.MemberValue;
 import javassist.bytecode.annotation.StringMemberValue;
 
 import java.util.ArrayList;
@@ -37,32 +43,61 @@ class AnnotationParser {
     private static final String METHOD_PARAMS_DESC = "(java.lang.reflect.Method,java.lang.Object[],java.lang.Object)";
     private static final String METHOD_PARAMS_DESC_WITH_WRAPPER_PARAMS =
             "(java.lang.reflect.Method,java.lang.Object[],java.lang.Object,java.lang.String[])";
+    private static final String HANDLE_PARAMS_DESC = "(java.lang.invoke.MethodHandle,java.lang.Object[],java.lang.Object)";
+    private static final String HANDLE_PARAMS_DESC_WITH_WRAPPER_PARAMS =
+            "(java.lang.invoke.MethodHandle,java.lang.Object[],java.lang.Object,java.lang.String[])";
+    private static final String INVOCATION_PARAMS_DESC = "(io.github.eshizhan.funcwraps.Invocation)";
 
     private ClassPool classPool;
 
     private boolean copyToTarget;
+    private Dispatch dispatch;
+    private boolean typedInvocation;
+    private double sample;
     private CtMethod wrapperMethod;
     private List<String> wrapperMethodParameters;
 
     public AnnotationParser(ClassPool classPool, CtMethod methodOrig) {
+        this(classPool, ((AnnotationsAttribute) methodOrig.getMethodInfo()
+                .getAttribute(AnnotationsAttribute.visibleTag))
+                .getAnnotation(Wraps.class.getName()));
+    }
+
+    /**
+     * @param annotation    `@Wraps` on method, or one of repeated in `@Wraps.List`.
+     */
+    public AnnotationParser(ClassPool classPool, Annotation annotation) {
         this.classPool = classPool;
-        this.wrapperMethod = getWrapperMethod(methodOrig);
+        this.wrapperMethod = getWrapperMethod(annotation);
+    }
+
+    /**
+     * @return `@Wraps` of method in declared order, repeated annotations are unpacked from `@Wraps.List`.
+     */
+    public static List<Annotation> getAnnotations(CtMethod method) {
+        List<Annotation> annotations = new ArrayList<>();
+        AnnotationsAttribute attribute = (AnnotationsAttribute) method.getMethodInfo()
+                .getAttribute(AnnotationsAttribute.visibleTag);
+        if (attribute == null)
+            return annotations;
+        Annotation single = attribute.getAnnotation(Wraps.class.getName());
+        if (single != null)
+            annotations.add(single);
+        Annotation container = attribute.getAnnotation(Wraps.List.class.getName());
+        if (container != null) {
+            for (MemberValue value : ((ArrayMemberValue) container.getMemberValue("value")).getValue())
+                annotations.add(((AnnotationMemberValue) value).getValue());
+        }
+        return annotations;
     }
 
     public boolean parsed() {
         return wrapperMethod != null;
     }
 
-    private CtMethod getWrapperMethod(CtMethod methodOrig) {
+    private CtMethod getWrapperMethod(Annotation annotation) {
         CtMethod methodWrapper = null;
         try {
-            if (methodOrig.getName().contains(WrapsProcessorConst.WRAPPED_SUFFIX)) {
-                throw new HasBeenWrappedException("the method has been wrapped");
-            }
-            Annotation annotation = ((AnnotationsAttribute) methodOrig.getMethodInfo()
-                    .getAttribute(AnnotationsAttribute.visibleTag))
-                    .getAnnotation(Wraps.class.getName());
-
             String clazz = ((ClassMemberValue) annotation.getMemberValue("clazz"))
                     .getValue().replace('$', '.');
 
@@ -71,27 +106,77 @@ class AnnotationParser {
 
             this.copyToTarget = annotation.getMemberValue("copyToTarget") != null &&
                     ((BooleanMemberValue) annotation.getMemberValue("copyToTarget")).getValue();
+            this.dispatch = annotation.getMemberValue("dispatch") == null ? Dispatch.REFLECT :
+                    Dispatch.valueOf(((EnumMemberValue) annotation.getMemberValue("dispatch")).getValue());
+            this.sample = annotation.getMemberValue("sample") == null ? 1.0 :
+                    ((DoubleMemberValue) annotation.getMemberValue("sample")).getValue();
+            // `1 / 1000` is integer division as 0, never calling wrapper, same as less than resolution 2^-32
+            if (!(sample > 0 && sample <= 1) || (long) (sample * (1L << 32)) == 0)
+                throw new RuntimeException("annotation element 'sample' must be in (0, 1] and not less than 2^-32: " +
+                        sample);
+
+            methodWrapper = selectWrapperMethod(classPool.get(clazz), methodName);
+            String params = Descriptor.toString(methodWrapper.getSignature());
 
-            methodWrapper = classPool.getMethod(clazz, methodName);
+            // wrapper parameters of typed invocation passing by `invocation.site().getWrapParams()`
+            this.typedInvocation = params.equals(INVOCATION_PARAMS_DESC);
+            if (typedInvocation) {
+                if (copyToTarget || dispatch != Dispatch.REFLECT)
+                    throw new RuntimeException("wrapper method with parameters " + INVOCATION_PARAMS_DESC +
+                            " can not be used with copyToTarget or dispatch " + dispatch);
+                if (!Modifier.isStatic(methodWrapper.getModifiers()))
+                    throw new RuntimeException("wrapper method must be static");
+                return methodWrapper;
+            }
 
             if (!copyToTarget && !Modifier.isStatic(methodWrapper.getModifiers()))
                 throw new RuntimeException("wrapper method must be static");
             if (copyToTarget && Modifier.isStatic(methodWrapper.getModifiers()))
                 throw new RuntimeException("wrapper method must be not-static while copyToTarget is true");
-            String params = Descriptor.toString(methodWrapper.getSignature());
-            String assertMethodParamsDesc = wrapperMethodParameters.isEmpty() ?
-                    METHOD_PARAMS_DESC : METHOD_PARAMS_DESC_WITH_WRAPPER_PARAMS;
+            if (copyToTarget && dispatch == Dispatch.INDY)
+                throw new RuntimeException("dispatch INDY can not be used while copyToTarget is true");
+            String assertMethodParamsDesc;
+            if (dispatch == Dispatch.INDY)
+                assertMethodParamsDesc = wrapperMethodParameters.isEmpty() ?
+                        HANDLE_PARAMS_DESC : HANDLE_PARAMS_DESC_WITH_WRAPPER_PARAMS;
+            else
+                assertMethodParamsDesc = wrapperMethodParameters.isEmpty() ?
+                        METHOD_PARAMS_DESC : METHOD_PARAMS_DESC_WITH_WRAPPER_PARAMS;
             if (!params.equals(assertMethodParamsDesc))
                 throw new RuntimeException("wrapper method parameters must be " + assertMethodParamsDesc);
-        } catch (HasBeenWrappedException e) {
-            System.out.println("skip the method:");
-            e.printStackTrace();
         } catch (NotFoundException e) {
             throw new RuntimeException(e);
         }
         return methodWrapper;
     }
 
+    /**
+     * Select wrapper method in overloaded methods, preferring typed {@link Invocation} if available,
+     * otherwise the one matching `copyToTarget` and `dispatch`.
+     */
+    private CtMethod selectWrapperMethod(CtClass ctClass, String methodName) throws NotFoundException {
+        CtMethod[] methods = ctClass.getDeclaredMethods(methodName);
+        if (methods.length == 0)
+            throw new NotFoundException(methodName + "(..) is not found in " + ctClass.getName());
+        if (methods.length == 1)
+            return methods[0];
+
+        String expected;
+        if (dispatch == Dispatch.INDY)
+            expected = wrapperMethodParameters.isEmpty() ? HANDLE_PARAMS_DESC : HANDLE_PARAMS_DESC_WITH_WRAPPER_PARAMS;
+        else
+            expected = wrapperMethodParameters.isEmpty() ? METHOD_PARAMS_DESC : METHOD_PARAMS_DESC_WITH_WRAPPER_PARAMS;
+        CtMethod matched = null;
+        for (CtMethod method : methods) {
+            String params = Descriptor.toString(method.getSignature());
+            if (params.equals(INVOCATION_PARAMS_DESC) && !copyToTarget && dispatch == Dispatch.REFLECT)
+                return method;
+            if (params.equals(expected) && matched == null)
+                matched = method;
+        }
+        return matched != null ? matched : methods[0];
+    }
+
     private String decodeMethodMember(String method) {
         this.wrapperMethodParameters = new ArrayList<>();
         if (!method.contains("(")) {
@@ -125,11 +210,18 @@ class AnnotationParser {
         return copyToTarget;
     }
 
-    private class HasBeenWrappedException extends RuntimeException {
-        private static final long serialVersionUID = 746706332526012449L;
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
 
-        public HasBeenWrappedException(String s) {
-            super(s);
-        }
+    public boolean isTypedInvocation() {
+        return typedInvocation;
+    }
+
+    /**
+     * @return fraction of calls passing through wrapper, 1.0 for all calls.
+     */
+    public double getSample() {
+        return sample;
     }
 }
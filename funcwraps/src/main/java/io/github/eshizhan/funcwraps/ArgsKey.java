@@ -0,0 +1,229 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Composite key of arguments, comparing arguments by `equals` and primitive arguments by value bits.
+ *
+ * <p> Looking up by {@link #probe(Invocation)} or {@link #probe(Object[])} instead of creating key,
+ * the probe is reused by the calling thread, so hitting cache allocates nothing. The key is copied
+ * from arguments by {@link #of(Invocation)} only when it should be stored.
+ */
+final class ArgsKey {
+    private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+
+    /** null if keyed by `Object[]` arguments */
+    private final WrapSite site;
+    /** value bits of primitive arguments, null if no primitive argument */
+    private final long[] prims;
+    /** reference arguments, null of primitive arguments */
+    private final Object[] refs;
+    private final int hash;
+
+    private ArgsKey(WrapSite site, long[] prims, Object[] refs, int hash) {
+        this.site = site;
+        this.prims = prims;
+        this.refs = refs;
+        this.hash = hash;
+    }
+
+    static ArgsKey of(Invocation invocation) {
+        WrapSite site = invocation.site();
+        int count = site.getParameterCount();
+        long[] prims = null;
+        Object[] refs = new Object[count];
+        for (int i = 0; i < count; i++) {
+            if (site.getParameterType(i).isPrimitive()) {
+                if (prims == null)
+                    prims = new long[count];
+                prims[i] = invocation.rawArg(i);
+            } else {
+                refs[i] = invocation.refArg(i);
+            }
+        }
+        return new ArgsKey(site, prims, refs, hash(invocation));
+    }
+
+    /**
+     * @param args  arguments of site, primitive arguments are boxed.
+     */
+    static ArgsKey of(WrapSite site, Object[] args) {
+        int count = site.getParameterCount();
+        long[] prims = null;
+        Object[] refs = new Object[count];
+        int h = 1;
+        for (int i = 0; i < count; i++) {
+            Class<?> type = site.getParameterType(i);
+            if (type.isPrimitive()) {
+                if (prims == null)
+                    prims = new long[count];
+                prims[i] = Invocation.unbox(type, args[i]);
+                h = 31 * h + Long.hashCode(prims[i]);
+            } else {
+                refs[i] = args[i];
+                h = 31 * h + Objects.hashCode(refs[i]);
+            }
+        }
+        return new ArgsKey(site, prims, refs, h);
+    }
+
+    static ArgsKey of(Object[] args) {
+        Object[] refs = args.clone();
+        return new ArgsKey(null, null, refs, hash(refs));
+    }
+
+    /**
+     * @return thread reused key for looking up, must be released by {@link Probe#clear()}.
+     */
+    static Probe probe(Invocation invocation) {
+        Probe probe = PROBE.get();
+        probe.invocation = invocation;
+        probe.hash = hash(invocation);
+        return probe;
+    }
+
+    static Probe probe(Object[] args) {
+        Probe probe = PROBE.get();
+        probe.args = args;
+        probe.hash = hash(args);
+        return probe;
+    }
+
+    WrapSite site() {
+        return site;
+    }
+
+    /**
+     * @return copy of arguments, primitive arguments are boxed.
+     */
+    Object[] args() {
+        Object[] args = refs.clone();
+        for (int i = 0; site != null && i < args.length; i++) {
+            if (site.getParameterType(i).isPrimitive())
+                args[i] = Invocation.box(site.getParameterType(i), prims[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Set arguments of invocation by this key.
+     */
+    void copyTo(Invocation invocation) {
+        for (int i = 0; i < refs.length; i++) {
+            if (site.getParameterType(i).isPrimitive())
+                invocation.setRawArg(i, prims[i]);
+            else
+                invocation.setArg(i, refs[i]);
+        }
+    }
+
+    private static int hash(Invocation invocation) {
+        WrapSite site = invocation.site();
+        int h = 1;
+        for (int i = 0; i < site.getParameterCount(); i++) {
+            h = 31 * h + (site.getParameterType(i).isPrimitive() ?
+                    Long.hashCode(invocation.rawArg(i)) : Objects.hashCode(invocation.refArg(i)));
+        }
+        return h;
+    }
+
+    private static int hash(Object[] args) {
+        int h = 1;
+        for (Object arg : args)
+            h = 31 * h + Objects.hashCode(arg);
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o instanceof Probe)
+            return o.equals(this);
+        if (!(o instanceof ArgsKey))
+            return false;
+        ArgsKey other = (ArgsKey) o;
+        return hash == other.hash && Arrays.equals(prims, other.prims) && Arrays.equals(refs, other.refs);
+    }
+
+    /**
+     * Same format as `Arrays.toString(args)`.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < refs.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            if (site != null && site.getParameterType(i).isPrimitive())
+                sb.append(Invocation.box(site.getParameterType(i), prims[i]));
+            else
+                sb.append(refs[i]);
+        }
+        return sb.append("]").toString();
+    }
+
+    static final class Probe {
+        private Invocation invocation;
+        private Object[] args;
+        private int hash;
+
+        void clear() {
+            invocation = null;
+            args = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ArgsKey))
+                return false;
+            ArgsKey key = (ArgsKey) o;
+            if (hash != key.hash)
+                return false;
+            if (args != null)
+                return key.prims == null && Arrays.equals(args, key.refs);
+
+            WrapSite site = invocation.site();
+            int count = site.getParameterCount();
+            if (count != key.refs.length)
+                return false;
+            for (int i = 0; i < count; i++) {
+                if (site.getParameterType(i).isPrimitive()) {
+                    if (key.prims == null || key.prims[i] != invocation.rawArg(i))
+                        return false;
+                } else if (!Objects.equals(invocation.refArg(i), key.refs[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
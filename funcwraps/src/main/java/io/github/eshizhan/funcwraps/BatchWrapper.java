@@ -0,0 +1,193 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalescing concurrent calls of single-key method into calls of batch method, using as
+ * `&#064;Wraps(clazz = BatchWrapper.class, method = "wrap(loadAll, maxSize=100, maxDelay=2ms)")`
+ * on method with one parameter as key, such as `User load(long id)`.
+ *
+ * <p> The batch method named by the first parameter is declared in the same class, static if wrapped method is
+ * static, with one parameter of `Collection`, `List` or `Set` of keys, returning `Map` keyed by key or `List` in
+ * order of keys, or `CompletableFuture` of them, such as `Map&lt;Long, User&gt; loadAll(List&lt;Long&gt; ids)`.
+ * Keys absent in the result get null. The wrapped method itself is not called.
+ *
+ * <ul>
+ * <li> `maxSize`, dispatching when the batch has the count of distinct keys, 100 by default.
+ * <li> `maxDelay`, dispatching when the duration elapsed since the first key added, 1ms by default.
+ * </ul>
+ *
+ * <p> Calls are batched per instance of target by identity, targets equal to each other are batched separately.
+ * The calling thread waits for the batch, unless the wrapped
+ * method returns `CompletableFuture` or `CompletionStage`, then the pending future is returned without blocking.
+ */
+public class BatchWrapper {
+    static final int DEFAULT_MAX_SIZE = 100;
+    static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Map<Method, BatchSite> methodMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param invocation    `invocation.site().getWrapParams()` is name of batch method and options.
+     */
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrapSite site = invocation.site();
+        BatchSite batchSite = site.attachment(BatchSite::new);
+        CompletableFuture<Object> future = batchSite.batcher(invocation.target()).add(invocation.target(),
+                invocation.arg(0));
+        if (site.isAsync())
+            invocation.setResult(future.thenApply(Function.identity()));
+        else
+            invocation.setBoxedResult(await(future));
+    }
+
+    /**
+     * @param wrapParams    name of batch method and options.
+     */
+    public static Object wrap(Method method, Object[] args, Object target, String[] wrapParams) throws Throwable {
+        BatchSite batchSite = methodMap.get(method);
+        if (batchSite == null)
+            batchSite = methodMap.computeIfAbsent(method, k -> new BatchSite(method.getDeclaringClass(),
+                    method.getParameterTypes(), WrapSite.isAsync(method.getReturnType()), wrapParams));
+        CompletableFuture<Object> future = batchSite.batcher(target).add(target, args[0]);
+        if (WrapSite.isAsync(method.getReturnType()))
+            return future.thenApply(Function.identity());
+        return await(future);
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws Throwable {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private static final class BatchSite {
+        final Method batchMethod;
+        final int maxSize;
+        final long maxDelayNanos;
+        final boolean async;
+        /** batchers of targets by identity, keys are cleared once targets are collected */
+        final Map<TargetKey, Batcher> batchers = new ConcurrentHashMap<>();
+        final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+        /** the only batcher of static method */
+        final Batcher staticBatcher;
+
+        BatchSite(WrapSite site) {
+            this(site.getDeclaringClass(), site.getParameterTypes(), site.isAsync(), site.getWrapParams());
+        }
+
+        BatchSite(Class<?> declaringClass, Class<?>[] parameterTypes, boolean async, String[] wrapParams) {
+            if (parameterTypes.length != 1)
+                throw new IllegalArgumentException("method wrapped by BatchWrapper must have one parameter");
+            if (wrapParams.length == 0)
+                throw new IllegalArgumentException("name of batch method is required, such as wrap(loadAll)");
+            int maxSize = DEFAULT_MAX_SIZE;
+            long maxDelayNanos = DEFAULT_MAX_DELAY_NANOS;
+            for (int i = 1; i < wrapParams.length; i++) {
+                String param = wrapParams[i].trim();
+                int index = param.indexOf('=');
+                String name = index < 0 ? param : param.substring(0, index).trim();
+                String value = index < 0 ? "" : param.substring(index + 1).trim();
+                switch (name) {
+                    case "maxSize":
+                        maxSize = Integer.parseInt(value);
+                        break;
+                    case "maxDelay":
+                        maxDelayNanos = CacheSpec.parseDuration(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option of BatchWrapper: " + param);
+                }
+            }
+            if (maxSize < 1)
+                throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+            this.maxSize = maxSize;
+            this.maxDelayNanos = maxDelayNanos;
+            this.batchMethod = findBatchMethod(declaringClass, wrapParams[0].trim());
+            this.async = async;
+            this.staticBatcher = Modifier.isStatic(batchMethod.getModifiers()) ?
+                    new Batcher(batchMethod, maxSize, maxDelayNanos, async) : null;
+        }
+
+        Batcher batcher(Object target) {
+            if (staticBatcher != null)
+                return staticBatcher;
+            Batcher batcher = batchers.get(new TargetKey(target, null));
+            if (batcher != null)
+                return batcher;
+            for (Reference<?> key; (key = collected.poll()) != null; )
+                batchers.remove(key);
+            return batchers.computeIfAbsent(new TargetKey(target, collected),
+                    k -> new Batcher(batchMethod, maxSize, maxDelayNanos, async));
+        }
+
+        private static Method findBatchMethod(Class<?> declaringClass, String name) {
+            for (Method method : declaringClass.getDeclaredMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == 1 &&
+                        Collection.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    method.setAccessible(true);
+                    return method;
+                }
+            }
+            throw new IllegalArgumentException("batch method " + name + "(Collection) is not found in " +
+                    declaringClass.getName());
+        }
+    }
+
+    /**
+     * Weak key of target compared by identity, never calling `equals` and `hashCode` of target.
+     */
+    private static final class TargetKey extends WeakReference<Object> {
+        private final int hash;
+
+        TargetKey(Object target, ReferenceQueue<Object> queue) {
+            super(target, queue);
+            this.hash = System.identityHashCode(target);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof TargetKey))
+                return false;
+            Object target = get();
+            return target != null && target == ((TargetKey) obj).get();
+        }
+    }
+}
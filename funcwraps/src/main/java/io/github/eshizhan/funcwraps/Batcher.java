@@ -0,0 +1,205 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting keys of concurrent calls into batch, dispatched as one call of batch method when the batch is full
+ * or the delay since the first key elapsed. Duplicated keys in the same batch are dispatched once.
+ *
+ * <p> Full batch is dispatched by the calling thread filling it if the wrapped method is synchronous, which
+ * would wait for the result anyway, otherwise by a bounded daemon thread pool as well as batch of delay elapsed,
+ * batch rejected by the full queue fails with `RejectedExecutionException`.
+ *
+ * <p> Target of batch method is passed by each call and only kept by pending batch, so batcher kept in
+ * map weakly keyed by target never keeps the target alive.
+ */
+final class Batcher {
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "funcwraps-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int DISPATCHER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int DISPATCHER_QUEUE_SIZE = 1024;
+    private static final ThreadPoolExecutor DISPATCHER = new ThreadPoolExecutor(DISPATCHER_THREADS,
+            DISPATCHER_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(DISPATCHER_QUEUE_SIZE), r -> {
+        Thread thread = new Thread(r, "funcwraps-batch");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+    static {
+        // timer of full batch is cancelled, not keeping the batch until delay elapsed
+        TIMER.setRemoveOnCancelPolicy(true);
+        DISPATCHER.allowCoreThreadTimeOut(true);
+    }
+
+    private final Method batchMethod;
+    private final int maxSize;
+    private final long maxDelayNanos;
+    private final boolean async;
+
+    // guarded by this
+    private Batch current;
+
+    /**
+     * @param batchMethod   accepting `Collection`, `List` or `Set` of keys, returning `Map` keyed by key or `List`
+     *                      in order of keys, or `CompletionStage` of them.
+     * @param async         true if wrapped method returns `CompletionStage`, the caller never waits for full batch.
+     */
+    Batcher(Method batchMethod, int maxSize, long maxDelayNanos, boolean async) {
+        this.batchMethod = batchMethod;
+        this.maxSize = maxSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.async = async;
+    }
+
+    /**
+     * @param target    `this` of batch method, null if static, same for all calls of this batcher.
+     * @return future of value of key, completed by dispatching batch, null value if absent in result.
+     */
+    CompletableFuture<Object> add(Object target, Object key) {
+        Batch full = null;
+        CompletableFuture<Object> future;
+        synchronized (this) {
+            if (current == null) {
+                Batch batch = current = new Batch(target);
+                batch.timer = TIMER.schedule(() -> flush(batch), maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            future = current.futures.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (current.futures.size() >= maxSize) {
+                full = current;
+                current = null;
+            }
+        }
+        if (full != null) {
+            full.timer.cancel(false);
+            if (async)
+                dispatchAsync(full);
+            else
+                dispatch(full);
+        }
+        return future;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (current != batch)
+                return;
+            current = null;
+        }
+        dispatchAsync(batch);
+    }
+
+    private void dispatchAsync(Batch batch) {
+        try {
+            DISPATCHER.execute(() -> dispatch(batch));
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    private void dispatch(Batch batch) {
+        Object result;
+        try {
+            result = batchMethod.invoke(batch.target, keysArgument(batch.futures.keySet()));
+        } catch (InvocationTargetException e) {
+            batch.fail(e.getCause() != null ? e.getCause() : e);
+            return;
+        } catch (Throwable e) {
+            batch.fail(e);
+            return;
+        }
+        if (result instanceof CompletionStage) {
+            ((CompletionStage<?>) result).whenComplete((value, e) -> {
+                if (e != null)
+                    batch.fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                else
+                    batch.complete(value);
+            });
+        } else {
+            batch.complete(result);
+        }
+    }
+
+    private Collection<Object> keysArgument(Set<Object> keys) {
+        Class<?> type = batchMethod.getParameterTypes()[0];
+        if (type.isAssignableFrom(ArrayList.class))
+            return new ArrayList<>(keys);
+        if (type.isAssignableFrom(LinkedHashSet.class))
+            return new LinkedHashSet<>(keys);
+        throw new IllegalArgumentException("parameter of batch method must be Collection, List or Set: " + batchMethod);
+    }
+
+    private static final class Batch {
+        final Object target;
+        final Map<Object, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+        // guarded by batcher until full
+        ScheduledFuture<?> timer;
+
+        Batch(Object target) {
+            this.target = target;
+        }
+
+        void complete(Object result) {
+            try {
+                if (result instanceof Map) {
+                    Map<?, ?> values = (Map<?, ?>) result;
+                    for (Map.Entry<Object, CompletableFuture<Object>> entry : futures.entrySet())
+                        entry.getValue().complete(values.get(entry.getKey()));
+                } else if (result instanceof List) {
+                    List<?> values = (List<?>) result;
+                    if (values.size() != futures.size())
+                        throw new IllegalStateException("batch method returned " + values.size() +
+                                " values for " + futures.size() + " keys");
+                    int index = 0;
+                    for (CompletableFuture<Object> future : futures.values())
+                        future.complete(values.get(index++));
+                } else {
+                    throw new IllegalStateException("batch method must return Map or List: " + result);
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        void fail(Throwable e) {
+            for (CompletableFuture<Object> future : futures.values())
+                future.completeExceptionally(e);
+        }
+    }
+}
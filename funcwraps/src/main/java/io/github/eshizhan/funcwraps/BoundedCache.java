@@ -0,0 +1,935 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache bounded by maximum size and optional maximum weight, evicting by W-TinyLFU.
+ *
+ * <p> Reading is lock-free on `ConcurrentHashMap`, the access is recorded into striped lossy buffer
+ * instead of reordering LRU list, buffers are drained under eviction lock when full or on writing.
+ * New entries are added into admission window (1% of maximum), entries overflowed window compete
+ * with the victim of main space (segmented LRU of probation and protected) by frequency estimated
+ * in {@link FrequencySketch}, so one-hit scanning can not flush the popular entries.
+ *
+ * <p> Loading by {@link #load(Object, Loader)} is single-flight, concurrent callers missing the same key
+ * wait for the result of the only one loading thread instead of loading again. Loading asynchronously by
+ * {@link #loadAsync(Object, AsyncLoader)} shares the stage of loading instead of waiting.
+ *
+ * <p> Entries expire after `ttl` since written, removed in write order. Entries hit after `refresh`
+ * since written are reloaded by {@link Reloader} in background, the stale value is returned until reloaded.
+ *
+ * <p> Weight of values are calculated by {@link Weigher} if bounded by weight or sharing {@link WeightBudget}
+ * with other caches, the admission window and protected space are still sized by count of entries.
+ *
+ * <p> Entries evicted by size or weight can be demoted to {@link OffHeapStore} instead of being discarded,
+ * promoted back to heap when loaded by key again. Entries restored by {@link CacheSnapshot} are also
+ * promoted to heap when loaded.
+ *
+ * <p> Hits, misses, loading and evictions are counted by {@link StatsCounter}.
+ */
+final class BoundedCache<K, V> {
+    private static final int READ_BUFFER_STRIPES = Math.min(64,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+    private static final double WINDOW_PERCENT = 0.01d;
+    private static final double PROTECTED_PERCENT = 0.80d;
+    private static final int ADMIT_HASHDOS_THRESHOLD = 6;
+
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> asyncFlights = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final ReadBuffer<K, V>[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+    private final Reloader<K, V> reloader;
+    private final Executor executor;
+    private final long maximumWeight;
+    private final Weigher weigher;
+    private final WeightBudget budget;
+    private final OffHeapStore<K> offHeap;
+    private final Queue<Node<K, V>> demoted = new ConcurrentLinkedQueue<>();
+    private volatile CacheSnapshot<K> snapshot;
+    private final StatsCounter statsCounter = new StatsCounter();
+
+    // guarded by evictionLock
+    private final FrequencySketch sketch;
+    private final AccessQueue<K, V> window = new AccessQueue<>();
+    private final AccessQueue<K, V> probation = new AccessQueue<>();
+    private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+    private final WriteQueue<K, V> writeQueue = new WriteQueue<>();
+    private long maximum;
+    private long windowMaximum;
+    private long protectedMaximum;
+    private long size;
+    private long windowSize;
+    private long protectedSize;
+    private volatile long weightedSize;
+
+    BoundedCache(long maximum) {
+        this(CacheSpec.of(maximum), null);
+    }
+
+    /**
+     * @param reloader  reloading entries should be refreshed, null if not refreshing.
+     */
+    BoundedCache(CacheSpec spec, Reloader<K, V> reloader) {
+        for (int i = 0; i < readBuffers.length; i++)
+            readBuffers[i] = new ReadBuffer<>();
+        this.expireAfterWriteNanos = spec.getExpireAfterWriteNanos();
+        this.refreshAfterWriteNanos = spec.getRefreshAfterWriteNanos();
+        this.reloader = reloader;
+        this.executor = spec.getExecutor();
+        this.maximumWeight = spec.getMaximumWeight();
+        this.weigher = spec.getWeigher();
+        this.budget = spec.getBudget();
+        try {
+            this.offHeap = spec.getOffHeapCapacity() > 0 ? new OffHeapStore<>(spec.getOffHeapCapacity(),
+                    spec.getOffHeapFile(), spec.getSerializer()) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sketch = new FrequencySketch(spec.getMaximum());
+        setMaximum0(spec.getMaximum());
+        if (budget != null)
+            budget.register(this);
+    }
+
+    /**
+     * @return cached value, null if absent or expired.
+     */
+    V get(K key) {
+        return get(key, null);
+    }
+
+    /**
+     * @param context   passing to reloader if the entry should be refreshed.
+     * @return cached value, null if absent or expired.
+     */
+    V get(K key, Object context) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            statsCounter.recordMiss();
+            return null;
+        }
+        V value = node.value;
+        if (expireAfterWriteNanos > 0 || refreshAfterWriteNanos > 0) {
+            long age = System.nanoTime() - node.writeTime;
+            if (expireAfterWriteNanos > 0 && age >= expireAfterWriteNanos) {
+                statsCounter.recordMiss();
+                return null;
+            }
+            if (refreshAfterWriteNanos > 0 && age >= refreshAfterWriteNanos)
+                scheduleRefresh(node, context);
+        }
+        if (node.stale)
+            scheduleRefresh(node, context);
+        statsCounter.recordHit();
+        recordRead(node);
+        return value;
+    }
+
+    void put(K key, V value) {
+        put(key, value, writeTime());
+    }
+
+    private void put(K key, V value, long writeTime) {
+        Node<K, V> node = new Node<>(key, value, writeTime);
+        Node<K, V> prior = data.putIfAbsent(key, node);
+        if (prior == null) {
+            long weight = weigh(value);
+            afterWrite(() -> onAdd(node, weight));
+        } else {
+            update(prior, value);
+        }
+    }
+
+    /**
+     * Mark all entries stale, reloaded in background when hit next time instead of removing,
+     * no effect if not refreshing.
+     */
+    void markStale() {
+        if (reloader == null)
+            return;
+        for (Node<K, V> node : data.values())
+            node.stale = true;
+    }
+
+    /**
+     * Load value of key missed by `get`, then cached if not null. Only one thread calls loader for the same key
+     * at the same time, others wait for its result, the exception thrown by loader is thrown to all of them.
+     *
+     * @return loaded value, or value cached by other thread.
+     */
+    V load(K key, Loader<V> loader) throws Throwable {
+        Flight<V> flight = new Flight<>();
+        Flight<V> prior = flights.putIfAbsent(key, flight);
+        if (prior != null) {
+            // loading the same key recursively in loader, no waiting for itself
+            if (prior.owner != Thread.currentThread())
+                return prior.await();
+            return loader.load();
+        }
+        try {
+            // checking again, loaded by other thread after missed
+            Node<K, V> node = data.get(key);
+            V value = node != null && !isExpired(node) ? node.value : null;
+            if (value == null && offHeap != null)
+                value = promote(key);
+            if (value == null && snapshot != null)
+                value = restore(key);
+            if (value == null) {
+                long startTime = System.nanoTime();
+                try {
+                    value = loader.load();
+                } catch (Throwable e) {
+                    statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+                    throw e;
+                }
+                statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+                if (value != null)
+                    put(key, value);
+            }
+            flight.complete(value);
+            return value;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #load(Object, Loader)} never blocking, the value is cached when the stage
+     * returned by loader completed normally with non-null value, failed stage is not cached. Concurrent callers
+     * missing the same key share the stage of the only one loading.
+     *
+     * @return stage of loaded value, or value cached by other thread.
+     */
+    CompletableFuture<V> loadAsync(K key, AsyncLoader<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> prior = asyncFlights.putIfAbsent(key, future);
+        if (prior != null) {
+            // copy for isolating callers completing or cancelling their own future
+            return prior.thenApply(Function.identity());
+        }
+        try {
+            Node<K, V> node = data.get(key);
+            V value = node != null && !isExpired(node) ? node.value : null;
+            if (value == null && offHeap != null)
+                value = promote(key);
+            if (value == null && snapshot != null)
+                value = restore(key);
+            if (value != null) {
+                asyncFlights.remove(key, future);
+                future.complete(value);
+                return future;
+            }
+        } catch (RuntimeException e) {
+            asyncFlights.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        long startTime = System.nanoTime();
+        CompletionStage<V> stage;
+        try {
+            stage = loader.load();
+            if (stage == null)
+                throw new NullPointerException("stage returned by loader is null");
+        } catch (Throwable e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+            asyncFlights.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+        stage.whenComplete((value, e) -> {
+            if (e == null) {
+                statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+                if (value != null)
+                    put(key, value);
+            } else {
+                statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+            }
+            asyncFlights.remove(key, future);
+            if (e == null)
+                future.complete(value);
+            else
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        });
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V promote(K key) {
+        OffHeapStore.Entry entry = offHeap.remove(key);
+        if (entry == null || expireAfterWriteNanos > 0 && System.nanoTime() - entry.writeTime >= expireAfterWriteNanos)
+            return null;
+        V value = (V) entry.value;
+        put(key, value, entry.writeTime);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V restore(K key) {
+        CacheSnapshot.Entry entry = snapshot.take(key);
+        if (entry == null)
+            return null;
+        long age = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - entry.writeTimeMillis));
+        if (expireAfterWriteNanos > 0 && age >= expireAfterWriteNanos)
+            return null;
+        V value = (V) entry.value;
+        put(key, value, writeTime() == 0 ? 0 : System.nanoTime() - age);
+        return value;
+    }
+
+    /**
+     * Set snapshot for restoring entries when missed.
+     */
+    void setSnapshot(CacheSnapshot<K> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Visit entries cached on heap.
+     */
+    void forEach(EntryVisitor<K, V> visitor) throws IOException {
+        for (Node<K, V> node : data.values()) {
+            V value = node.value;
+            if (!node.removed && !isExpired(node))
+                visitor.visit(node.key, value, node.writeTime);
+        }
+    }
+
+    /**
+     * @return true if key is cached on heap.
+     */
+    boolean containsKey(K key) {
+        return data.containsKey(key);
+    }
+
+    /**
+     * @return removed value, null if absent.
+     */
+    V remove(K key) {
+        if (offHeap != null)
+            offHeap.discard(key);
+        Node<K, V> node = data.remove(key);
+        if (node == null)
+            return null;
+        node.removed = true;
+        afterWrite(() -> unlink(node));
+        return node.value;
+    }
+
+    void clear() {
+        for (K key : data.keySet())
+            remove(key);
+        if (offHeap != null)
+            offHeap.clear();
+        if (snapshot != null)
+            snapshot.clear();
+    }
+
+    /**
+     * Clear and leave shared weight budget, the cache should not be used after closed.
+     */
+    void close() {
+        clear();
+        if (budget != null)
+            budget.unregister(this);
+        if (offHeap != null)
+            offHeap.close();
+        if (snapshot != null)
+            snapshot.close();
+    }
+
+    /**
+     * @return total weight of entries, 0 if not weighted.
+     */
+    long weightedSize() {
+        return weightedSize;
+    }
+
+    /**
+     * @return count of entries in off-heap tier, 0 if no off-heap tier.
+     */
+    long offHeapSize() {
+        return offHeap != null ? offHeap.size() : 0;
+    }
+
+    /**
+     * @return 0 if not bounded by weight.
+     */
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    long size() {
+        return data.mappingCount();
+    }
+
+    CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    long getMaximum() {
+        evictionLock.lock();
+        try {
+            return maximum;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Change maximum size, exceeded entries are evicted immediately.
+     */
+    void setMaximum(long maximum) {
+        evictionLock.lock();
+        try {
+            setMaximum0(maximum);
+            sketch.ensureCapacity(maximum);
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+        demote();
+    }
+
+    /**
+     * @return copy of cached entries.
+     */
+    Map<K, V> snapshot() {
+        Map<K, V> map = new HashMap<>();
+        for (Node<K, V> node : data.values())
+            map.put(node.key, node.value);
+        return map;
+    }
+
+    private void setMaximum0(long maximum) {
+        if (maximum < 0)
+            throw new IllegalArgumentException("maximum must not be negative: " + maximum);
+        long mainMaximum = (long) (maximum * (1 - WINDOW_PERCENT));
+        this.maximum = maximum;
+        this.windowMaximum = maximum - mainMaximum;
+        this.protectedMaximum = (long) (mainMaximum * PROTECTED_PERCENT);
+    }
+
+    private long writeTime() {
+        return expireAfterWriteNanos > 0 || refreshAfterWriteNanos > 0 ? System.nanoTime() : 0L;
+    }
+
+    private boolean isExpired(Node<K, V> node) {
+        return expireAfterWriteNanos > 0 && System.nanoTime() - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    private long weigh(V value) {
+        if (weigher == null)
+            return 0L;
+        long weight = weigher.weigh(value);
+        if (weight < 0)
+            throw new IllegalArgumentException("weight must not be negative: " + weight);
+        return weight;
+    }
+
+    private void update(Node<K, V> node, V value) {
+        node.value = value;
+        node.writeTime = writeTime();
+        node.stale = false;
+        recordRead(node);
+        if (expireAfterWriteNanos > 0 || weigher != null) {
+            long weight = weigh(value);
+            afterWrite(() -> onWrite(node, weight));
+        }
+    }
+
+    private void scheduleRefresh(Node<K, V> node, Object context) {
+        if (reloader == null || !Node.REFRESHING.compareAndSet(node, 0, 1))
+            return;
+        try {
+            executor.execute(() -> refresh(node, context));
+        } catch (RejectedExecutionException e) {
+            node.refreshing = 0;
+        }
+    }
+
+    /**
+     * Reloading entry in background, the stale value is kept if failed, retried by next hit.
+     * Asynchronous reloading is not waited, the entry is updated when completed.
+     */
+    private void refresh(Node<K, V> node, Object context) {
+        long startTime = System.nanoTime();
+        CompletionStage<V> stage;
+        try {
+            stage = reloader.reload(node.key, context);
+        } catch (Throwable e) {
+            stage = null;
+        }
+        if (stage == null) {
+            // keeping stale value
+            statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+            node.refreshing = 0;
+            return;
+        }
+        stage.whenComplete((value, e) -> {
+            try {
+                if (e != null) {
+                    statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+                    return;
+                }
+                statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+                if (value != null && data.get(node.key) == node)
+                    update(node, value);
+            } finally {
+                node.refreshing = 0;
+            }
+        });
+    }
+
+    private void recordRead(Node<K, V> node) {
+        long probe = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+        ReadBuffer<K, V> buffer = readBuffers[(int) (probe >>> 32) & (READ_BUFFER_STRIPES - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+        demote();
+        // evicting other caches without holding lock of this one
+        if (budget != null && budget.isOver())
+            budget.evict();
+    }
+
+    /**
+     * Evict one victim for shared weight budget, the victim is least recently used one in main space.
+     *
+     * @return false if nothing evicted, empty or being maintained by other thread.
+     */
+    boolean evictForBudget() {
+        if (!evictionLock.tryLock())
+            return false;
+        try {
+            Node<K, V> victim = probation.first != null ? probation.first :
+                    protectedQueue.first != null ? protectedQueue.first : window.first;
+            if (victim == null)
+                return false;
+            evictEntry(victim, true);
+            return true;
+        } finally {
+            evictionLock.unlock();
+            demote();
+        }
+    }
+
+    /**
+     * Storing entries evicted into off-heap tier, serializing without holding lock.
+     */
+    private void demote() {
+        Node<K, V> node;
+        while ((node = demoted.poll()) != null) {
+            // skipping if loaded again after evicted
+            if (!data.containsKey(node.key))
+                offHeap.put(node.key, node.value, node.writeTime);
+        }
+    }
+
+    private void maintenance() {
+        for (ReadBuffer<K, V> buffer : readBuffers)
+            buffer.drainTo(this);
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null)
+            task.run();
+        expire();
+        evict();
+    }
+
+    private void expire() {
+        if (expireAfterWriteNanos <= 0)
+            return;
+        long now = System.nanoTime();
+        Node<K, V> node;
+        while ((node = writeQueue.first) != null && now - node.writeTime >= expireAfterWriteNanos)
+            evictEntry(node, false);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                protectedQueue.linkLast(node);
+                node.queue = PROTECTED;
+                protectedSize++;
+                while (protectedSize > protectedMaximum) {
+                    Node<K, V> demoted = protectedQueue.pollFirst();
+                    probation.linkLast(demoted);
+                    demoted.queue = PROBATION;
+                    protectedSize--;
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.moveToBack(node);
+                break;
+            default:
+                // removed or not added yet
+        }
+    }
+
+    private void onAdd(Node<K, V> node, long weight) {
+        if (node.removed)
+            return;
+        addWeight(node, weight);
+        sketch.increment(node.key);
+        window.linkLast(node);
+        node.queue = WINDOW;
+        windowSize++;
+        size++;
+        if (expireAfterWriteNanos > 0)
+            writeQueue.linkLast(node);
+    }
+
+    private void onWrite(Node<K, V> node, long weight) {
+        if (node.queue == 0)
+            return;
+        addWeight(node, weight - node.weight);
+        if (expireAfterWriteNanos > 0)
+            writeQueue.moveToBack(node);
+    }
+
+    private void addWeight(Node<K, V> node, long delta) {
+        node.weight += delta;
+        weightedSize += delta;
+        if (budget != null)
+            budget.add(delta);
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.unlink(node);
+                windowSize--;
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                break;
+            case PROTECTED:
+                protectedQueue.unlink(node);
+                protectedSize--;
+                break;
+            default:
+                return;
+        }
+        if (expireAfterWriteNanos > 0)
+            writeQueue.unlink(node);
+        addWeight(node, -node.weight);
+        node.queue = 0;
+        size--;
+    }
+
+    private void evict() {
+        Node<K, V> candidate = null;
+        while (windowSize > windowMaximum) {
+            Node<K, V> node = window.pollFirst();
+            windowSize--;
+            probation.linkLast(node);
+            node.queue = PROBATION;
+            if (candidate == null)
+                candidate = node;
+        }
+
+        Node<K, V> victim = probation.first;
+        while (size > maximum || (maximumWeight > 0 && weightedSize > maximumWeight)) {
+            if (victim == null && candidate == null) {
+                // probation is empty, evicting from protected then window
+                victim = protectedQueue.first != null ? protectedQueue.first : window.first;
+            }
+            if (candidate == null || victim == candidate) {
+                Node<K, V> next = victim.next;
+                if (victim == candidate)
+                    candidate = next;
+                evictEntry(victim, true);
+                victim = next;
+            } else if (victim == null || candidate.weight > maximumWeight && maximumWeight > 0
+                    || !admit(candidate, victim)) {
+                Node<K, V> next = candidate.next;
+                evictEntry(candidate, true);
+                candidate = next;
+            } else {
+                Node<K, V> next = victim.next;
+                evictEntry(victim, true);
+                victim = next;
+            }
+        }
+    }
+
+    private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+        int candidateFreq = sketch.frequency(candidate.key);
+        int victimFreq = sketch.frequency(victim.key);
+        if (candidateFreq > victimFreq)
+            return true;
+        // admitting warm candidate randomly, avoiding attack of hash collision on victim
+        return candidateFreq >= ADMIT_HASHDOS_THRESHOLD && ThreadLocalRandom.current().nextInt(128) == 0;
+    }
+
+    /**
+     * @param demote    storing into off-heap tier if exists.
+     */
+    private void evictEntry(Node<K, V> node, boolean demote) {
+        unlink(node);
+        if (data.remove(node.key, node)) {
+            node.removed = true;
+            statsCounter.recordEviction();
+            if (demote && offHeap != null)
+                demoted.add(node);
+        }
+    }
+
+    @FunctionalInterface
+    interface Loader<V> {
+        V load() throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface EntryVisitor<K, V> {
+        /**
+         * @param writeTime     `System.nanoTime()` when written, 0 if not recorded.
+         */
+        void visit(K key, V value, long writeTime) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface AsyncLoader<V> {
+        CompletionStage<V> load() throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface Reloader<K, V> {
+        /**
+         * @param context   passed by `get` triggering refresh, such as target of wrapped method.
+         * @return stage of new value, null value for keeping the stale value.
+         */
+        CompletionStage<V> reload(K key, Object context) throws Throwable;
+    }
+
+    /**
+     * Result of loading in progress, waited by other threads missing the same key.
+     */
+    private static final class Flight<V> extends CompletableFuture<V> {
+        final Thread owner = Thread.currentThread();
+
+        V await() throws Throwable {
+            try {
+                return join();
+            } catch (CompletionException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Node> REFRESHING =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "refreshing");
+
+        final K key;
+        volatile V value;
+        volatile long writeTime;
+        volatile boolean removed;
+        volatile boolean stale;
+        volatile int refreshing;
+        // guarded by evictionLock
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+        Node<K, V> writePrev;
+        Node<K, V> writeNext;
+        long weight;
+
+        Node(K key, V value, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes in access order, the first is least recently used.
+     */
+    private static final class AccessQueue<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+
+        void linkLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null)
+                first = node;
+            else
+                last.next = node;
+            last = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.prev == null)
+                first = node.next;
+            else
+                node.prev.next = node.next;
+            if (node.next == null)
+                last = node.prev;
+            else
+                node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null)
+                unlink(node);
+            return node;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes in write order, the first expires first.
+     */
+    private static final class WriteQueue<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+
+        void linkLast(Node<K, V> node) {
+            node.writePrev = last;
+            node.writeNext = null;
+            if (last == null)
+                first = node;
+            else
+                last.writeNext = node;
+            last = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.writePrev == null)
+                first = node.writeNext;
+            else
+                node.writePrev.writeNext = node.writeNext;
+            if (node.writeNext == null)
+                last = node.writePrev;
+            else
+                node.writeNext.writePrev = node.writePrev;
+            node.writePrev = null;
+            node.writeNext = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    /**
+     * Lossy ring buffer of accessed nodes, offering is dropped if full or contended.
+     */
+    private static final class ReadBuffer<K, V> {
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /**
+         * @return true if buffer is full and should be drained.
+         */
+        boolean offer(Node<K, V> node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= SIZE)
+                return true;
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & MASK), node);
+                return tail + 1 - head >= SIZE;
+            }
+            return false;
+        }
+
+        void drainTo(BoundedCache<K, V> cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node<K, V> node = buffer.get(index);
+                if (node == null)
+                    break;
+                buffer.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCounter = head;
+        }
+    }
+}
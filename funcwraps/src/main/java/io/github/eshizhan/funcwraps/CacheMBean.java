@@ -0,0 +1,121 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+/**
+ * Registering {@link BoundedCache} of wrapped method as {@link CacheMXBean} by {@link MBeanRegistry}.
+ */
+final class CacheMBean implements CacheMXBean {
+    private static final String TYPE = "LRUCacheWrapper";
+
+    private final BoundedCache<?, ?> cache;
+    private final String signature;
+
+    private CacheMBean(BoundedCache<?, ?> cache, String signature) {
+        this.cache = cache;
+        this.signature = signature;
+    }
+
+    static void register(BoundedCache<?, ?> cache, String signature) {
+        MBeanRegistry.register(TYPE, signature, new CacheMBean(cache, signature));
+    }
+
+    static void unregister(String signature) {
+        MBeanRegistry.unregister(TYPE, signature);
+    }
+
+    @Override
+    public String getMethod() {
+        return signature;
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getMaximum() {
+        return cache.getMaximum();
+    }
+
+    @Override
+    public void setMaximum(long maximum) {
+        cache.setMaximum(maximum);
+    }
+
+    @Override
+    public long getWeightedSize() {
+        return cache.weightedSize();
+    }
+
+    @Override
+    public long getMaximumWeight() {
+        return cache.getMaximumWeight();
+    }
+
+    @Override
+    public long getOffHeapSize() {
+        return cache.offHeapSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return cache.stats().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return cache.stats().loadFailureCount();
+    }
+
+    @Override
+    public double getAverageLoadPenalty() {
+        return cache.stats().averageLoadPenalty();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    @Override
+    public void refresh() {
+        cache.markStale();
+    }
+}
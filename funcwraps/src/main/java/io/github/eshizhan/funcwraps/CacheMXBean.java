@@ -0,0 +1,77 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+/**
+ * Management interface of cache for a method wrapped by {@link LRUCacheWrapper}, registered in platform
+ * MBean server as `io.github.eshizhan.funcwraps:type=LRUCacheWrapper,name="com.example.Foo.find(long)"`.
+ */
+public interface CacheMXBean {
+    /**
+     * @return signature of wrapped method.
+     */
+    String getMethod();
+
+    long getSize();
+
+    long getMaximum();
+
+    /**
+     * Resize cache, exceeded results are evicted immediately.
+     */
+    void setMaximum(long maximum);
+
+    /**
+     * @return 0 if not weighted.
+     */
+    long getWeightedSize();
+
+    /**
+     * @return 0 if not bounded by weight.
+     */
+    long getMaximumWeight();
+
+    long getOffHeapSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    /**
+     * @return average nanoseconds of loading.
+     */
+    double getAverageLoadPenalty();
+
+    long getEvictionCount();
+
+    /**
+     * Remove all results cached.
+     */
+    void invalidateAll();
+
+    /**
+     * Mark all results stale, reloaded in background when hit next time.
+     */
+    void refresh();
+}
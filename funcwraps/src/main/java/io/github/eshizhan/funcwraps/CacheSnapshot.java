@@ -0,0 +1,375 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Snapshot of cache in local file for warm restarts, saved periodically and at shutdown, one file per
+ * wrapped method named by its signature.
+ *
+ * <p> Format in big-endian: magic `FWCS`, version, signature, fingerprint, count of entries, then entries of
+ * `writeTimeMillis keyLength key valueLength value`, key is serialized arguments. The fingerprint is SHA-1 of
+ * the class file of wrapped method, snapshot is ignored if the class changed, or not restored if the class file
+ * can not be read.
+ *
+ * <p> Loading is lazy, the file is memory-mapped and only keys are indexed in background when cache created,
+ * values are deserialized when missed on heap.
+ *
+ * <p> Since values are deserialized, the directory is created accessible only by owner, and the directory and
+ * snapshot file are refused if not owned by current user or writable by others.
+ */
+final class CacheSnapshot<K> {
+    private static final int MAGIC = 0x46574353;
+    private static final int VERSION = 1;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "funcwraps-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<CacheSnapshot<?>> SNAPSHOTS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (CacheSnapshot<?> snapshot : SNAPSHOTS)
+                snapshot.saveQuietly();
+        }, "funcwraps-snapshot-shutdown"));
+    }
+
+    private final BoundedCache<K, ?> cache;
+    private final Path file;
+    private final String signature;
+    private final byte[] fingerprint;
+    private final Serializer serializer;
+    private final Function<Object[], K> keyFactory;
+    private final Function<K, Object[]> keyArgs;
+
+    // guarded by this
+    private Map<K, Slot> index = new HashMap<>();
+    private ByteBuffer buffer;
+    private volatile ScheduledFuture<?> saving;
+
+    private CacheSnapshot(BoundedCache<K, ?> cache, Path file, String signature, byte[] fingerprint,
+                          Serializer serializer, Function<Object[], K> keyFactory, Function<K, Object[]> keyArgs) {
+        this.cache = cache;
+        this.file = file;
+        this.signature = signature;
+        this.fingerprint = fingerprint;
+        this.serializer = serializer;
+        this.keyFactory = keyFactory;
+        this.keyArgs = keyArgs;
+    }
+
+    /**
+     * Restoring snapshot of cache in background, then saving periodically.
+     *
+     * @param signature     signature of wrapped method, such as `com.example.Foo.find(long)`.
+     * @param keyFactory    creating key of cache by arguments.
+     * @param keyArgs       arguments of key.
+     */
+    static <K> CacheSnapshot<K> attach(BoundedCache<K, ?> cache, CacheSpec spec, Class<?> declaringClass,
+                                       String signature, Function<Object[], K> keyFactory,
+                                       Function<K, Object[]> keyArgs) {
+        Path file = spec.getSnapshotDir().resolve(fileName(signature));
+        CacheSnapshot<K> snapshot = new CacheSnapshot<>(cache, file, signature, fingerprint(declaringClass),
+                spec.getSerializer(), keyFactory, keyArgs);
+        SNAPSHOTS.add(snapshot);
+        long interval = spec.getSnapshotIntervalNanos();
+        EXECUTOR.execute(snapshot::restoreQuietly);
+        snapshot.saving = EXECUTOR.scheduleWithFixedDelay(snapshot::saveQuietly, interval, interval,
+                TimeUnit.NANOSECONDS);
+        return snapshot;
+    }
+
+    /**
+     * Remove entry restored from snapshot.
+     *
+     * @return null if absent, or not indexed yet.
+     */
+    synchronized Entry take(K key) {
+        Slot slot = index.remove(key);
+        if (slot == null)
+            return null;
+        try {
+            return new Entry(serializer.deserialize(read(slot.valueOffset, slot.valueLength)), slot.writeTimeMillis);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    synchronized void clear() {
+        index = new HashMap<>();
+    }
+
+    void close() {
+        SNAPSHOTS.remove(this);
+        ScheduledFuture<?> saving = this.saving;
+        if (saving != null)
+            saving.cancel(false);
+        clear();
+    }
+
+    /**
+     * Save entries cached on heap and entries in snapshot not restored yet.
+     */
+    void save() throws IOException {
+        Path dir = file.getParent();
+        if (Files.notExists(dir)) {
+            if (isPosix(dir))
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            else
+                Files.createDirectories(dir);
+        }
+        checkOwned(dir);
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                byte[] signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(signatureBytes.length);
+                out.write(signatureBytes);
+                out.writeInt(fingerprint.length);
+                out.write(fingerprint);
+
+                int[] count = {0};
+                ByteArrayEntries writer = (keyBytes, valueBytes, writeTimeMillis) -> {
+                    out.writeLong(writeTimeMillis);
+                    out.writeInt(keyBytes.length);
+                    out.write(keyBytes);
+                    out.writeInt(valueBytes.length);
+                    out.write(valueBytes);
+                    count[0]++;
+                };
+                // count is written at the end of file for streaming
+                long nanoNow = System.nanoTime();
+                long millisNow = System.currentTimeMillis();
+                cache.forEach((key, value, writeTime) -> {
+                    byte[] keyBytes;
+                    byte[] valueBytes;
+                    try {
+                        keyBytes = serializer.serialize(keyArgs.apply(key));
+                        valueBytes = serializer.serialize(value);
+                    } catch (IOException | RuntimeException e) {
+                        // skipping not serializable entries
+                        return;
+                    }
+                    long writeTimeMillis = writeTime == 0 ? millisNow :
+                            millisNow - TimeUnit.NANOSECONDS.toMillis(nanoNow - writeTime);
+                    writer.write(keyBytes, valueBytes, writeTimeMillis);
+                });
+                synchronized (this) {
+                    for (Map.Entry<K, Slot> e : index.entrySet()) {
+                        // loaded again while indexing, the cached one is newer
+                        if (cache.containsKey(e.getKey()))
+                            continue;
+                        Slot slot = e.getValue();
+                        writer.write(read(slot.keyOffset, slot.keyLength), read(slot.valueOffset, slot.valueLength),
+                                slot.writeTimeMillis);
+                    }
+                }
+                out.writeInt(count[0]);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Index keys of snapshot file, ignored if signature or fingerprint changed.
+     */
+    void restore() throws IOException {
+        if (fingerprint.length == 0)
+            return;
+        // declared as ByteBuffer, duplicate() of MappedByteBuffer is covariant since Java 13
+        ByteBuffer mapped;
+        try {
+            checkOwned(file.getParent());
+            checkOwned(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        ByteBuffer in = mapped.duplicate();
+        if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION)
+            return;
+        byte[] signatureBytes = new byte[in.getInt()];
+        in.get(signatureBytes);
+        byte[] fingerprintBytes = new byte[in.getInt()];
+        in.get(fingerprintBytes);
+        if (!signature.equals(new String(signatureBytes, StandardCharsets.UTF_8)) ||
+                !Arrays.equals(fingerprint, fingerprintBytes))
+            return;
+        int count = mapped.getInt(mapped.limit() - 4);
+
+        Map<K, Slot> restored = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            long writeTimeMillis = in.getLong();
+            int keyOffset = in.position() + 4;
+            int keyLength = in.getInt();
+            ((Buffer) in).position(keyOffset + keyLength);
+            int valueOffset = in.position() + 4;
+            int valueLength = in.getInt();
+            ((Buffer) in).position(valueOffset + valueLength);
+
+            byte[] keyBytes = new byte[keyLength];
+            ((ByteBuffer) ((Buffer) mapped.duplicate()).position(keyOffset)).get(keyBytes);
+            Object[] args = (Object[]) serializer.deserialize(keyBytes);
+            restored.put(keyFactory.apply(args), new Slot(keyOffset, keyLength, valueOffset, valueLength, writeTimeMillis));
+        }
+        synchronized (this) {
+            // keys loaded while indexing are stale in snapshot
+            restored.keySet().removeIf(cache::containsKey);
+            buffer = mapped;
+            index = restored;
+        }
+    }
+
+    private void restoreQuietly() {
+        try {
+            restore();
+        } catch (IOException | RuntimeException e) {
+            // broken snapshot, starting with empty cache
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            // keeping previous snapshot
+        }
+    }
+
+    /**
+     * Refuse directory or file which may be written by other users, since snapshot is deserialized.
+     */
+    private static void checkOwned(Path path) throws IOException {
+        String user = System.getProperty("user.name");
+        String owner = Files.getOwner(path).getName();
+        // owner is prefixed by domain on Windows
+        if (!owner.equals(user) && !owner.endsWith("\\" + user))
+            throw new IOException(path + " is owned by " + owner + ", not current user " + user);
+        if (isPosix(path)) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE) ||
+                    permissions.contains(PosixFilePermission.OTHERS_WRITE))
+                throw new IOException(path + " is writable by others");
+        }
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private byte[] read(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ((ByteBuffer) ((Buffer) buffer.duplicate()).position(offset)).get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return file name by class and method name, with hash of signature for overloaded methods.
+     */
+    static String fileName(String signature) {
+        String name = signature.substring(0, signature.indexOf('('));
+        return name + "-" + Integer.toHexString(signature.hashCode()) + ".snapshot";
+    }
+
+    /**
+     * @return SHA-1 of class file, empty if class file can not be read.
+     */
+    static byte[] fingerprint(Class<?> clazz) {
+        String name = clazz.getName();
+        try (InputStream in = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null)
+                return new byte[0];
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = new byte[8192];
+            for (int n; (n = in.read(bytes)) > 0; )
+                digest.update(bytes, 0, n);
+            return digest.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return new byte[0];
+        }
+    }
+
+    @FunctionalInterface
+    private interface ByteArrayEntries {
+        void write(byte[] key, byte[] value, long writeTimeMillis) throws IOException;
+    }
+
+    static final class Entry {
+        final Object value;
+        final long writeTimeMillis;
+
+        Entry(Object value, long writeTimeMillis) {
+            this.value = value;
+            this.writeTimeMillis = writeTimeMillis;
+        }
+    }
+
+    private static final class Slot {
+        final int keyOffset;
+        final int keyLength;
+        final int valueOffset;
+        final int valueLength;
+        final long writeTimeMillis;
+
+        Slot(int keyOffset, int keyLength, int valueOffset, int valueLength, long writeTimeMillis) {
+            this.keyOffset = keyOffset;
+            this.keyLength = keyLength;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.writeTimeMillis = writeTimeMillis;
+        }
+    }
+}
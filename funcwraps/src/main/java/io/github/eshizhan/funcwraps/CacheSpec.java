@@ -0,0 +1,277 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options of cache parsed from wrapper parameters, for example `wrap(1000, ttl=30s, refresh=20s)`.
+ * <ul>
+ * <li> the first parameter is maximum size.
+ * <li> `ttl`, entries expire after the duration since loaded.
+ * <li> `refresh`, entries are reloaded in background when hit after the duration since loaded,
+ *      the stale value is returned until reloaded.
+ * <li> `weight`, total weight of results must be under the size, such as `weight=64mb`.
+ * <li> `weigher`, class name of {@link Weigher}, {@link ShallowSizeEstimator} by default.
+ * <li> `offheap`, size of off-heap tier storing results evicted from heap, such as `offheap=1gb`.
+ *      Direct buffers are limited by `-XX:MaxDirectMemorySize`, which is maximum heap size by default.
+ * <li> `offheapFile`, memory-mapped file of off-heap tier, direct buffers by default. The file is deleted
+ *      when cache is closed or JVM exits.
+ * <li> `serializer`, class name of {@link Serializer} for off-heap tier and snapshot, {@link JavaSerializer}
+ *      by default.
+ * <li> `snapshot`, saving results into local file in the duration for warm restarts, such as `snapshot=60s`,
+ *      see {@link CacheSnapshot}. The directory must be set by system property `funcwraps.cache.snapshotDir`,
+ *      not defaulting to temporary directory which is writable by other users.
+ * </ul>
+ * Duration is number with unit `ms`, `s`, `m`, `h` or `d`. Size is number with unit `b`, `kb`, `mb` or `gb`.
+ *
+ * <p> Weight budget shared by all caches can be set by system property, such as `-Dfuncwraps.cache.weight=512mb`,
+ * results of all caches are weighed.
+ */
+final class CacheSpec {
+    private static final WeightBudget GLOBAL_BUDGET = System.getProperty("funcwraps.cache.weight") == null ? null :
+            new WeightBudget(parseSize(System.getProperty("funcwraps.cache.weight")));
+    private static final int REFRESH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int REFRESH_QUEUE_SIZE = 1024;
+    /**
+     * Bounded for slow reloading, refresh is discarded by {@link RejectedExecutionException} when queue is full,
+     * and retried by next hit of stale entry.
+     */
+    private static final ThreadPoolExecutor REFRESH_EXECUTOR = new ThreadPoolExecutor(
+            REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE), r -> {
+        Thread thread = new Thread(r, "funcwraps-refresh");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+    static {
+        REFRESH_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private long maximum;
+    private long expireAfterWriteNanos;
+    private long refreshAfterWriteNanos;
+    private long maximumWeight;
+    private Weigher weigher;
+    private long offHeapCapacity;
+    private Path offHeapFile;
+    private Serializer serializer;
+    private long snapshotIntervalNanos;
+
+    private CacheSpec() {
+    }
+
+    static CacheSpec of(long maximum) {
+        CacheSpec spec = new CacheSpec();
+        spec.maximum = maximum;
+        return spec;
+    }
+
+    /**
+     * @param loader    loading class of weigher.
+     */
+    static CacheSpec parse(String[] wrapParams, ClassLoader loader) {
+        if (wrapParams.length == 0)
+            throw new IllegalArgumentException("maximum size of cache is required, such as `wrap(1000)`");
+        CacheSpec spec = of(Long.parseUnsignedLong(wrapParams[0]));
+        for (int i = 1; i < wrapParams.length; i++) {
+            String param = wrapParams[i];
+            int index = param.indexOf('=');
+            if (index < 0)
+                throw new IllegalArgumentException("cache option must be `name=value`: " + param);
+            String name = param.substring(0, index).trim();
+            String value = param.substring(index + 1).trim();
+            switch (name) {
+                case "ttl":
+                    spec.expireAfterWriteNanos = parseDuration(value);
+                    break;
+                case "refresh":
+                    spec.refreshAfterWriteNanos = parseDuration(value);
+                    break;
+                case "weight":
+                    spec.maximumWeight = parseSize(value);
+                    break;
+                case "weigher":
+                    spec.weigher = newInstance(Weigher.class, value, loader);
+                    break;
+                case "offheap":
+                    spec.offHeapCapacity = parseSize(value);
+                    break;
+                case "offheapFile":
+                    spec.offHeapFile = Paths.get(value);
+                    break;
+                case "serializer":
+                    spec.serializer = newInstance(Serializer.class, value, loader);
+                    break;
+                case "snapshot":
+                    spec.snapshotIntervalNanos = parseDuration(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown cache option: " + param);
+            }
+        }
+        if (spec.weigher == null && (spec.maximumWeight > 0 || GLOBAL_BUDGET != null))
+            spec.weigher = new ShallowSizeEstimator();
+        if (spec.snapshotIntervalNanos > 0 && spec.getSnapshotDir() == null)
+            throw new IllegalArgumentException("snapshot requires directory set by system property " +
+                    "funcwraps.cache.snapshotDir");
+        if (spec.serializer == null && (spec.offHeapCapacity > 0 || spec.snapshotIntervalNanos > 0))
+            spec.serializer = new JavaSerializer();
+        return spec;
+    }
+
+    private static <T> T newInstance(Class<T> type, String className, ClassLoader loader) {
+        try {
+            return type.cast(Class.forName(className, true, loader).getConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException(className + " must be class of " + type.getSimpleName() +
+                    " with public constructor", e);
+        }
+    }
+
+    static long parseSize(String value) {
+        String lower = value.trim().toLowerCase();
+        int index = 0;
+        while (index < lower.length() && Character.isDigit(lower.charAt(index)))
+            index++;
+        if (index == 0)
+            throw new IllegalArgumentException("size must be number with unit: " + value);
+        long amount = Long.parseLong(lower.substring(0, index));
+        switch (lower.substring(index)) {
+            case "b":
+                return amount;
+            case "kb":
+                return amount << 10;
+            case "mb":
+                return amount << 20;
+            case "gb":
+                return amount << 30;
+            default:
+                throw new IllegalArgumentException("unknown unit of size: " + value);
+        }
+    }
+
+    static long parseDuration(String value) {
+        String lower = value.trim().toLowerCase();
+        int index = 0;
+        while (index < lower.length() && Character.isDigit(lower.charAt(index)))
+            index++;
+        if (index == 0)
+            throw new IllegalArgumentException("duration must be number with unit: " + value);
+        long amount = Long.parseLong(lower.substring(0, index));
+        switch (lower.substring(index)) {
+            case "ms":
+                return TimeUnit.MILLISECONDS.toNanos(amount);
+            case "s":
+                return TimeUnit.SECONDS.toNanos(amount);
+            case "m":
+                return TimeUnit.MINUTES.toNanos(amount);
+            case "h":
+                return TimeUnit.HOURS.toNanos(amount);
+            case "d":
+                return TimeUnit.DAYS.toNanos(amount);
+            default:
+                throw new IllegalArgumentException("unknown unit of duration: " + value);
+        }
+    }
+
+    long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return 0 if entries never expire.
+     */
+    long getExpireAfterWriteNanos() {
+        return expireAfterWriteNanos;
+    }
+
+    /**
+     * @return 0 if entries never refresh.
+     */
+    long getRefreshAfterWriteNanos() {
+        return refreshAfterWriteNanos;
+    }
+
+    /**
+     * @return 0 if not bounded by weight.
+     */
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * @return null if results are not weighed.
+     */
+    Weigher getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * @return 0 if no off-heap tier.
+     */
+    long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    /**
+     * @return null if using direct buffers.
+     */
+    Path getOffHeapFile() {
+        return offHeapFile;
+    }
+
+    Serializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * @return 0 if not saving snapshot.
+     */
+    long getSnapshotIntervalNanos() {
+        return snapshotIntervalNanos;
+    }
+
+    /**
+     * @return null if not set.
+     */
+    Path getSnapshotDir() {
+        String dir = System.getProperty("funcwraps.cache.snapshotDir");
+        return dir != null ? Paths.get(dir) : null;
+    }
+
+    /**
+     * @return weight budget shared by all caches, null if not set.
+     */
+    WeightBudget getBudget() {
+        return GLOBAL_BUDGET;
+    }
+
+    /**
+     * @return executor of reloading in background, shared bounded daemon threads.
+     */
+    Executor getExecutor() {
+        return REFRESH_EXECUTOR;
+    }
+}
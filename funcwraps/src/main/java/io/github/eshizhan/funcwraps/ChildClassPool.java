@@ -0,0 +1,46 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+
+/**
+ * Class pool looking up its own class path first, for processing classes of a module or a worker,
+ * while JDK classes are always taken from the parent, which is kept warm and shared.
+ */
+public class ChildClassPool extends ClassPool {
+    private final ClassPool parentPool;
+
+    public ChildClassPool(ClassPool parent) {
+        super(parent);
+        this.parentPool = parent;
+        this.childFirstLookup = true;
+    }
+
+    @Override
+    protected synchronized CtClass get0(String classname, boolean useCache) throws NotFoundException {
+        if (useCache && classname.startsWith("java.")) {
+            CtClass clazz = parentPool.getOrNull(classname);
+            if (clazz != null)
+                return clazz;
+        }
+        return super.get0(classname, useCache);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records hash of each class file after processed, for skipping unchanged classes in next processing.
+ * Stored in class path as text file, the time of saving in the second line, then one class per line:
+ * `className size lastModified hash`.
+ *
+ * <p> Size and last modified time are trusted only if the class file was modified earlier than saving
+ * by more than {@link #TIMESTAMP_RESOLUTION_MILLIS}, otherwise a class recompiled in the same tick of
+ * file system timestamp may have the same size and time, and the hash is compared.
+ */
+class ClassManifest {
+    private static final String HEADER = "# funcwraps manifest v2";
+    private static final String SAVED_PREFIX = "# saved ";
+    /**
+     * The coarsest resolution of last modified time of common file systems, 2 seconds of FAT.
+     */
+    static final long TIMESTAMP_RESOLUTION_MILLIS = 2000;
+
+    private final Path file;
+    private final long savedMillis;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private ClassManifest(Path file, long savedMillis, Map<String, Entry> previous) {
+        this.file = file;
+        this.savedMillis = savedMillis;
+        this.previous = previous;
+    }
+
+    /**
+     * Load manifest of class path, empty manifest if not exists or unknown version.
+     */
+    public static ClassManifest load(Path classPath) throws IOException {
+        Path file = classPath.resolve(WrapsProcessorConst.MANIFEST_FILE);
+        Map<String, Entry> previous = new ConcurrentHashMap<>();
+        long savedMillis = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String saved;
+            if (HEADER.equals(reader.readLine()) && (saved = reader.readLine()) != null &&
+                    saved.startsWith(SAVED_PREFIX)) {
+                savedMillis = Long.parseLong(saved.substring(SAVED_PREFIX.length()));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    if (fields.length == 4)
+                        previous.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                fields[3]));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first processing
+        }
+        return new ClassManifest(file, savedMillis, previous);
+    }
+
+    /**
+     * @return entry of last processing, null if class is new.
+     */
+    public Entry get(String className) {
+        return previous.get(className);
+    }
+
+    /**
+     * @return count of classes of last processing.
+     */
+    public int size() {
+        return previous.size();
+    }
+
+    /**
+     * @return true if class file is not touched since last processing, judged by size and last modified time.
+     */
+    public boolean matches(Entry entry, BasicFileAttributes attrs) {
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        return entry.size == attrs.size() && entry.lastModified == lastModified &&
+                savedMillis - lastModified > TIMESTAMP_RESOLUTION_MILLIS;
+    }
+
+    /**
+     * Keep entry of class for this processing, classes not kept are removed from manifest.
+     */
+    public void put(String className, Entry entry) {
+        current.put(className, entry);
+    }
+
+    public void save() throws IOException {
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.write(SAVED_PREFIX + System.currentTimeMillis());
+                writer.newLine();
+                for (Map.Entry<String, Entry> e : new TreeMap<>(current).entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(e.getKey() + " " + entry.size + " " + entry.lastModified + " " + entry.hash);
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public static String hash(byte[] bytecode) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytecode);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static final class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        Entry(BasicFileAttributes attrs, String hash) {
+            this(attrs.size(), attrs.lastModifiedTime().toMillis(), hash);
+        }
+    }
+}
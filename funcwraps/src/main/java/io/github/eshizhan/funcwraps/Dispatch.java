@@ -0,0 +1,36 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+/**
+ * How the bridge method calling the wrapper method.
+ */
+public enum Dispatch {
+    /**
+     * Passing wrapped method as `java.lang.reflect.Method` to wrapper,
+     * calling wrapped method by `method.invoke(target, args)`.
+     */
+    REFLECT,
+
+    /**
+     * Linking the bridge by invokedynamic, passing wrapped method as constant `java.lang.invoke.MethodHandle`
+     * to wrapper, calling wrapped method by `method.invoke(target, args)`.
+     * Wrapper method declared as `public static Object wrap(MethodHandle method, Object[] args, Object target)`.
+     */
+    INDY
+}
@@ -0,0 +1,73 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Hedging calls of idempotent wrapped method for cutting tail latency, using as
+ * `&#064;Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=p95, budget=5%)")`, see {@link Hedger} for options.
+ * The call not completed within the delay is called again by a daemon thread pool, the first successful result is
+ * returned, and the other attempt is cancelled without interrupting, or `cancel` for `CompletableFuture`.
+ *
+ * <p> For method returning value, the wrapped method is called by thread pool while hedging is possible, and
+ * the calling thread waits for the first result, with `interrupt=true` the first attempt is called by the calling
+ * thread keeping its thread locals, and the winning hedge interrupts it. For method returning
+ * `CompletableFuture` or `CompletionStage`, the wrapped method is called by the calling thread, and hedged after
+ * delay without blocking.
+ */
+public class HedgeWrapper {
+    private static final Map<Method, Hedger> methodMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param invocation    `invocation.site().getWrapParams()` is options.
+     */
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrapSite site = invocation.site();
+        Hedger hedger = site.attachment(HedgeWrapper::newHedger);
+        Supplier<Hedger.Attempt> remote = () -> {
+            ArgsKey args = ArgsKey.of(invocation);
+            Object target = invocation.target();
+            return () -> Invocation.invoke(site, target, args);
+        };
+        if (site.isAsync())
+            invocation.setResult(hedger.callAsync(invocation::proceedObject, remote));
+        else
+            invocation.setBoxedResult(hedger.call(invocation::proceedObject, remote));
+    }
+
+    /**
+     * @param wrapParams    options, see {@link Hedger}.
+     */
+    public static Object wrap(Method method, Object[] args, Object target, String[] wrapParams) throws Throwable {
+        Hedger hedger = methodMap.get(method);
+        if (hedger == null)
+            hedger = methodMap.computeIfAbsent(method, k -> Hedger.parse(wrapParams));
+        Hedger.Attempt attempt = () -> method.invoke(target, args);
+        if (WrapSite.isAsync(method.getReturnType()))
+            return hedger.callAsync(attempt, () -> attempt);
+        return hedger.call(attempt, () -> attempt);
+    }
+
+    private static Hedger newHedger(WrapSite site) {
+        return Hedger.parse(site.getWrapParams());
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedging calls of a wrapped method, the call not completed within the delay is called again by a daemon
+ * thread pool, the first successful result wins and the other attempt is cancelled without interrupting
+ * unless `interrupt` is set.
+ *
+ * <p> For method returning value without `interrupt`, both attempts are called by the thread pool while hedging is
+ * possible and the calling thread waits for the first result, so thread locals of the calling thread are not
+ * visible to the wrapped method. With `interrupt`, the first attempt is called by the calling thread keeping its
+ * thread locals, and the winning hedge interrupts it to return at once. For method returning
+ * `CompletableFuture` or `CompletionStage`, the first attempt is always called by the calling thread.
+ *
+ * <p> Hedges are limited by budget of credits, each call earns `budget` of a hedge, and each hedge spends one,
+ * at most {@value #MAX_BURST} hedges are saved, so hedges are at most `budget` of calls besides the burst.
+ * Earning skips writing when credits are full, so calls without hedging only read it.
+ *
+ * <p> Delay is fixed or a percentile of latency of attempts, recorded by {@link LatencyHistogram} and updated
+ * at most once per second from the latencies since last updating. Calls are not hedged until
+ * {@value #MIN_SAMPLES} latencies recorded.
+ *
+ * <p> Options:
+ * <ul>
+ * <li> `delay`, such as `delay=20ms` or percentile `delay=p95`, `p99.9`, required.
+ * <li> `budget`, percentage of calls hedged at most, such as `budget=5%`, 5% by default.
+ * <li> `interrupt`, or `interrupt=true`, the loser of method returning value is interrupted, false by default,
+ * as interrupting closes NIO interruptible channels used by the attempt.
+ * </ul>
+ */
+final class Hedger {
+    static final int MAX_BURST = 10;
+    static final int MIN_SAMPLES = 100;
+    private static final long CREDIT = 1000;
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "funcwraps-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "funcwraps-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // cancelled when the call completes before delay, most tasks never run
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long fixedDelayNanos;
+    private final double quantile;
+    private final long earning;
+    private final boolean interrupt;
+    private final AtomicLong credits = new AtomicLong(MAX_BURST * CREDIT);
+    private final LatencyHistogram histogram;
+    private final AtomicLong nextUpdate = new AtomicLong();
+    private long[] previousCounts;
+    private volatile long percentileDelayNanos = -1;
+
+    Hedger(long fixedDelayNanos, double quantile, double budget, boolean interrupt) {
+        this.fixedDelayNanos = fixedDelayNanos;
+        this.quantile = quantile;
+        this.earning = Math.round(budget * CREDIT);
+        this.interrupt = interrupt;
+        this.histogram = quantile > 0 ? new LatencyHistogram() : null;
+        this.previousCounts = quantile > 0 ? new long[LatencyHistogram.BUCKETS] : null;
+    }
+
+    static Hedger parse(String[] wrapParams) {
+        long fixedDelayNanos = -1;
+        double quantile = 0;
+        double budget = 0.05;
+        boolean interrupt = false;
+        for (String param : wrapParams) {
+            param = param.trim();
+            int index = param.indexOf('=');
+            String name = index < 0 ? param : param.substring(0, index).trim();
+            String value = index < 0 ? "" : param.substring(index + 1).trim();
+            switch (name) {
+                case "delay":
+                    if (value.startsWith("p")) {
+                        quantile = Double.parseDouble(value.substring(1)) / 100;
+                        if (quantile <= 0 || quantile >= 1)
+                            throw new IllegalArgumentException("percentile of delay must be in (0, 100): " + value);
+                    } else {
+                        fixedDelayNanos = CacheSpec.parseDuration(value);
+                    }
+                    break;
+                case "budget":
+                    budget = Double.parseDouble(value.endsWith("%") ?
+                            value.substring(0, value.length() - 1).trim() : value) / 100;
+                    if (budget < 0)
+                        throw new IllegalArgumentException("budget must not be negative: " + value);
+                    break;
+                case "interrupt":
+                    if (!value.isEmpty() && !value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+                        throw new IllegalArgumentException("interrupt must be true or false: " + value);
+                    interrupt = value.isEmpty() || Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option of HedgeWrapper: " + param);
+            }
+        }
+        if (fixedDelayNanos < 0 && quantile == 0)
+            throw new IllegalArgumentException("delay of HedgeWrapper is required, such as delay=20ms or delay=p95");
+        return new Hedger(fixedDelayNanos, quantile, budget, interrupt);
+    }
+
+    /**
+     * Calling by the calling thread directly if hedging is impossible, otherwise waiting for the first result
+     * of the attempt and the hedge after delay, the attempt is called by thread pool, or by the calling thread
+     * with `interrupt`.
+     *
+     * @param local     attempt by the calling thread.
+     * @param remote    creating attempt by other threads, called by the calling thread at most once.
+     */
+    Object call(Attempt local, Supplier<Attempt> remote) throws Throwable {
+        long delayNanos = delayNanos();
+        earn();
+        if (delayNanos < 0 || credits.get() < CREDIT)
+            return local.callTimed(this);
+
+        Attempt attempt = remote.get();
+        Race race = new Race(interrupt ? Thread.currentThread() : null);
+        race.pending.incrementAndGet();
+        Future<?> primary = null;
+        ScheduledFuture<?> timer = null;
+        try {
+            if (!interrupt)
+                primary = EXECUTOR.submit(() -> race.run(attempt));
+            timer = scheduleHedge(race, delayNanos, () -> race.run(attempt));
+            return interrupt ? race.callFirst(local) : race.get();
+        } finally {
+            if (timer != null)
+                timer.cancel(false);
+            if (primary != null)
+                primary.cancel(false);
+            Future<?> hedge = race.hedge;
+            if (hedge != null)
+                hedge.cancel(interrupt);
+        }
+    }
+
+    /**
+     * Calling by the calling thread, hedging after delay if the returned stage is not completed.
+     *
+     * @param local     attempt by the calling thread.
+     * @param remote    creating attempt by other threads, called by the calling thread at most once.
+     */
+    CompletionStage<?> callAsync(Attempt local, Supplier<Attempt> remote) throws Throwable {
+        long delayNanos = delayNanos();
+        earn();
+        long start = System.nanoTime();
+        CompletionStage<?> first = (CompletionStage<?>) local.call();
+        if (first == null)
+            return null;
+        if (delayNanos < 0) {
+            if (histogram != null)
+                first.whenComplete((value, e) -> record(start, e));
+            return first;
+        }
+
+        Race race = new Race(null);
+        race.pending.incrementAndGet();
+        race.attach(first, start);
+        if (race.result.isDone())
+            return race.result;
+        Attempt attempt = remote.get();
+        ScheduledFuture<?> timer = scheduleHedge(race, delayNanos, () -> {
+            long hedgeStart = System.nanoTime();
+            try {
+                race.attach((CompletionStage<?>) attempt.call(), hedgeStart);
+            } catch (Throwable e) {
+                race.fail(e);
+            }
+        });
+        race.result.whenComplete((value, e) -> timer.cancel(false));
+        return race.result;
+    }
+
+    /**
+     * Submitting the hedge to thread pool after delay if the race is not done and the budget allows.
+     */
+    private ScheduledFuture<?> scheduleHedge(Race race, long delayNanos, Runnable hedge) {
+        return TIMER.schedule(() -> {
+            if (race.result.isDone() || !trySpend())
+                return;
+            // pending before submitting, so the first attempt failing in the meantime waits for the hedge
+            race.pending.incrementAndGet();
+            try {
+                race.hedge = EXECUTOR.submit(hedge);
+            } catch (RejectedExecutionException e) {
+                race.withdraw();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return -1 if percentile is not available yet.
+     */
+    private long delayNanos() {
+        if (histogram == null)
+            return fixedDelayNanos;
+        long now = System.nanoTime();
+        long next = nextUpdate.get();
+        if (now - next >= 0 && nextUpdate.compareAndSet(next, now + UPDATE_INTERVAL_NANOS)
+                && !updatePercentile() && percentileDelayNanos < 0) {
+            // updating by next call until the first percentile available
+            nextUpdate.set(now);
+        }
+        return percentileDelayNanos;
+    }
+
+    /**
+     * Called by the only thread winning {@link #nextUpdate}.
+     *
+     * @return false if latencies are not enough.
+     */
+    private boolean updatePercentile() {
+        long[] counts = histogram.counts();
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            long delta = counts[i] - previousCounts[i];
+            previousCounts[i] = counts[i];
+            counts[i] = delta;
+            count += delta;
+        }
+        if (count >= MIN_SAMPLES) {
+            percentileDelayNanos = LatencyHistogram.percentile(counts, count, quantile);
+            return true;
+        }
+        // keeping collecting until enough latencies
+        for (int i = 0; i < counts.length; i++)
+            previousCounts[i] -= counts[i];
+        return false;
+    }
+
+    private void record(long start, Throwable e) {
+        if (histogram != null && e == null)
+            histogram.record(System.nanoTime() - start);
+    }
+
+    private void earn() {
+        long current = credits.get();
+        if (current < MAX_BURST * CREDIT && earning > 0)
+            credits.compareAndSet(current, Math.min(MAX_BURST * CREDIT, current + earning));
+    }
+
+    private boolean trySpend() {
+        while (true) {
+            long current = credits.get();
+            if (current < CREDIT)
+                return false;
+            if (credits.compareAndSet(current, current - CREDIT))
+                return true;
+        }
+    }
+
+    /**
+     * Calling the wrapped method once, may be called concurrently by different threads.
+     */
+    @FunctionalInterface
+    interface Attempt {
+        Object call() throws Throwable;
+
+        default Object callTimed(Hedger hedger) throws Throwable {
+            long start = System.nanoTime();
+            Object result = call();
+            hedger.record(start, null);
+            return result;
+        }
+    }
+
+    /**
+     * Attempts of one call, the first successful result wins, failing only if all attempts failed.
+     */
+    private final class Race {
+        private static final int CALLING = 0;
+        private static final int RETURNED = 1;
+        private static final int INTERRUPTED = 2;
+
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger();
+        volatile Future<?> hedge;
+        private volatile Throwable lastFailure;
+        /**
+         * The calling thread running the first attempt with `interrupt`, otherwise null.
+         */
+        private final Thread caller;
+        private final AtomicInteger callerState = new AtomicInteger(CALLING);
+        private final CountDownLatch interruptDelivered;
+
+        Race(Thread caller) {
+            this.caller = caller;
+            this.interruptDelivered = caller != null ? new CountDownLatch(1) : null;
+        }
+
+        /**
+         * Attempt of method returning value, run by thread pool.
+         */
+        void run(Attempt attempt) {
+            if (result.isDone())
+                return;
+            try {
+                Object value = attempt.callTimed(Hedger.this);
+                if (result.complete(value) && caller != null && callerState.compareAndSet(CALLING, INTERRUPTED)) {
+                    caller.interrupt();
+                    interruptDelivered.countDown();
+                }
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Calling the first attempt by the calling thread, which is interrupted if the hedge wins.
+         */
+        Object callFirst(Attempt local) throws Throwable {
+            boolean wasInterrupted = caller.isInterrupted();
+            Object value;
+            try {
+                value = local.callTimed(Hedger.this);
+            } catch (Throwable e) {
+                // interrupted by others rather than the hedge, the call is cancelled
+                if (!returned(wasInterrupted) && e instanceof InterruptedException)
+                    throw e;
+                fail(e);
+                return get();
+            }
+            returned(wasInterrupted);
+            result.complete(value);
+            return get();
+        }
+
+        /**
+         * Called by the calling thread after its attempt returned or thrown, clearing only the interrupt by
+         * the hedge, and restoring the interrupt status before the attempt.
+         *
+         * @return true if interrupted by the hedge.
+         */
+        private boolean returned(boolean wasInterrupted) {
+            if (callerState.compareAndSet(CALLING, RETURNED))
+                return false;
+            boolean delivered = false;
+            while (!delivered) {
+                try {
+                    interruptDelivered.await();
+                    delivered = true;
+                } catch (InterruptedException e) {
+                    // the interrupt by the hedge arrived before counting down
+                }
+            }
+            Thread.interrupted();
+            if (wasInterrupted)
+                caller.interrupt();
+            return true;
+        }
+
+        void attach(CompletionStage<?> stage, long start) {
+            if (stage == null) {
+                result.complete(null);
+                return;
+            }
+            stage.whenComplete((value, e) -> {
+                if (e == null) {
+                    record(start, null);
+                    result.complete(value);
+                } else {
+                    fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+            });
+            // the loser is cancelled
+            result.whenComplete((value, e) -> stage.toCompletableFuture().cancel(false));
+        }
+
+        void fail(Throwable e) {
+            lastFailure = e;
+            if (pending.decrementAndGet() == 0)
+                result.completeExceptionally(e);
+        }
+
+        /**
+         * The hedge pending is not submitted, failing with the last failure if other attempts all failed.
+         */
+        void withdraw() {
+            if (pending.decrementAndGet() == 0)
+                result.completeExceptionally(lastFailure);
+        }
+
+        Object get() throws Throwable {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
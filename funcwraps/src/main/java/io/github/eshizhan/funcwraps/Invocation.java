@@ -0,0 +1,346 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.Arrays;
+
+/**
+ * Typed invocation of wrapped method, passing to wrapper method declared as
+ * `public static void wrap(Invocation invocation) throws Throwable`.
+ *
+ * <p> Arguments and result of primitive type are stored without boxing. Using `intArg(i)`, `longArg(i)`...
+ * for reading arguments, calling `proceed()` or typed `proceedInt()`, `proceedLong()`... for calling
+ * wrapped method, the result can be replaced by `setIntResult(int)`, `setLongResult(long)`...
+ *
+ * <p> Instances are reused by the calling thread, the invocation must not be kept after wrapper returned.
+ */
+public final class Invocation {
+    private static final ThreadLocal<Stack> STACK = ThreadLocal.withInitial(Stack::new);
+
+    private final Stack stack;
+    private WrapSite site;
+    private Object target;
+    private long[] primArgs = new long[4];
+    private Object[] refArgs = new Object[4];
+    private long primResult;
+    private Object refResult;
+
+    private Invocation(Stack stack) {
+        this.stack = stack;
+    }
+
+    /**
+     * Called by bridge method before calling wrapper.
+     */
+    public static Invocation enter(WrapSite site, Object target) {
+        Invocation invocation = STACK.get().push();
+        invocation.site = site;
+        invocation.target = target;
+        int count = site.getParameterCount();
+        if (invocation.primArgs.length < count) {
+            invocation.primArgs = new long[count];
+            invocation.refArgs = new Object[count];
+        }
+        return invocation;
+    }
+
+    /**
+     * Called by bridge method after wrapper returned.
+     */
+    public void exit() {
+        for (int i = 0; i < site.getParameterCount(); i++)
+            refArgs[i] = null;
+        site = null;
+        target = null;
+        refResult = null;
+        primResult = 0;
+        stack.pop();
+    }
+
+    /**
+     * Called by bridge method of chained wrappers, switching to site of next wrapper before calling it,
+     * and switching back after it returned.
+     */
+    public void setSite(WrapSite site) {
+        this.site = site;
+    }
+
+    /**
+     * Calling wrapped method of site directly without wrapper, such as reloading cache in background.
+     *
+     * @return result boxed.
+     */
+    static Object invoke(WrapSite site, Object target, ArgsKey args) throws Throwable {
+        Invocation invocation = enter(site, target);
+        try {
+            args.copyTo(invocation);
+            return invocation.proceedObject();
+        } finally {
+            invocation.exit();
+        }
+    }
+
+    /**
+     * Calling wrapped method with current arguments, result stored in this invocation.
+     */
+    public void proceed() throws Throwable {
+        site.getProceedHandle().invokeExact(this);
+    }
+
+    public int proceedInt() throws Throwable {
+        proceed();
+        return intResult();
+    }
+
+    public long proceedLong() throws Throwable {
+        proceed();
+        return longResult();
+    }
+
+    public float proceedFloat() throws Throwable {
+        proceed();
+        return floatResult();
+    }
+
+    public double proceedDouble() throws Throwable {
+        proceed();
+        return doubleResult();
+    }
+
+    public boolean proceedBoolean() throws Throwable {
+        proceed();
+        return booleanResult();
+    }
+
+    public Object proceedObject() throws Throwable {
+        proceed();
+        return result();
+    }
+
+    public WrapSite site() {
+        return site;
+    }
+
+    /**
+     * @return `this` of wrapped method, null if wrapped method is static.
+     */
+    public Object target() {
+        return target;
+    }
+
+    public int argCount() {
+        return site.getParameterCount();
+    }
+
+    public int intArg(int index) {
+        return (int) primArgs[index];
+    }
+
+    public long longArg(int index) {
+        return primArgs[index];
+    }
+
+    public float floatArg(int index) {
+        return Float.intBitsToFloat((int) primArgs[index]);
+    }
+
+    public double doubleArg(int index) {
+        return Double.longBitsToDouble(primArgs[index]);
+    }
+
+    public boolean booleanArg(int index) {
+        return primArgs[index] != 0;
+    }
+
+    public byte byteArg(int index) {
+        return (byte) primArgs[index];
+    }
+
+    public short shortArg(int index) {
+        return (short) primArgs[index];
+    }
+
+    public char charArg(int index) {
+        return (char) primArgs[index];
+    }
+
+    /**
+     * @return argument of index, boxing if argument is primitive type.
+     */
+    public Object arg(int index) {
+        Class<?> type = site.getParameterType(index);
+        if (!type.isPrimitive())
+            return refArgs[index];
+        return box(type, primArgs[index]);
+    }
+
+    /**
+     * @return value bits of primitive argument.
+     */
+    long rawArg(int index) {
+        return primArgs[index];
+    }
+
+    Object refArg(int index) {
+        return refArgs[index];
+    }
+
+    void setRawArg(int index, long value) {
+        primArgs[index] = value;
+    }
+
+    public void setIntArg(int index, int value) {
+        primArgs[index] = value;
+    }
+
+    public void setLongArg(int index, long value) {
+        primArgs[index] = value;
+    }
+
+    public void setFloatArg(int index, float value) {
+        primArgs[index] = Float.floatToRawIntBits(value);
+    }
+
+    public void setDoubleArg(int index, double value) {
+        primArgs[index] = Double.doubleToRawLongBits(value);
+    }
+
+    public void setBooleanArg(int index, boolean value) {
+        primArgs[index] = value ? 1 : 0;
+    }
+
+    public void setArg(int index, Object value) {
+        refArgs[index] = value;
+    }
+
+    public int intResult() {
+        return (int) primResult;
+    }
+
+    public long longResult() {
+        return primResult;
+    }
+
+    public float floatResult() {
+        return Float.intBitsToFloat((int) primResult);
+    }
+
+    public double doubleResult() {
+        return Double.longBitsToDouble(primResult);
+    }
+
+    public boolean booleanResult() {
+        return primResult != 0;
+    }
+
+    /**
+     * @return result of wrapped method, boxing if return type is primitive.
+     */
+    public Object result() {
+        Class<?> type = site.getReturnType();
+        if (!type.isPrimitive())
+            return refResult;
+        return box(type, primResult);
+    }
+
+    /**
+     * Set result by boxed value of primitive return type, or reference result.
+     */
+    void setBoxedResult(Object value) {
+        Class<?> type = site.getReturnType();
+        if (type.isPrimitive())
+            primResult = unbox(type, value);
+        else
+            refResult = value;
+    }
+
+    public void setIntResult(int value) {
+        primResult = value;
+    }
+
+    public void setLongResult(long value) {
+        primResult = value;
+    }
+
+    public void setFloatResult(float value) {
+        primResult = Float.floatToRawIntBits(value);
+    }
+
+    public void setDoubleResult(double value) {
+        primResult = Double.doubleToRawLongBits(value);
+    }
+
+    public void setBooleanResult(boolean value) {
+        primResult = value ? 1 : 0;
+    }
+
+    public void setResult(Object value) {
+        refResult = value;
+    }
+
+    static Object box(Class<?> type, long value) {
+        if (type == int.class)
+            return (int) value;
+        if (type == long.class)
+            return value;
+        if (type == float.class)
+            return Float.intBitsToFloat((int) value);
+        if (type == double.class)
+            return Double.longBitsToDouble(value);
+        if (type == boolean.class)
+            return value != 0;
+        if (type == byte.class)
+            return (byte) value;
+        if (type == short.class)
+            return (short) value;
+        if (type == char.class)
+            return (char) value;
+        return null;
+    }
+
+    static long unbox(Class<?> type, Object value) {
+        if (type == float.class)
+            return Float.floatToRawIntBits((Float) value);
+        if (type == double.class)
+            return Double.doubleToRawLongBits((Double) value);
+        if (type == boolean.class)
+            return (Boolean) value ? 1 : 0;
+        if (type == char.class)
+            return (Character) value;
+        return ((Number) value).longValue();
+    }
+
+    private static final class Stack {
+        private Invocation[] frames = new Invocation[4];
+        private int depth;
+
+        Invocation push() {
+            if (depth == frames.length)
+                frames = Arrays.copyOf(frames, depth * 2);
+            Invocation invocation = frames[depth];
+            if (invocation == null)
+                invocation = frames[depth] = new Invocation(this);
+            depth++;
+            return invocation;
+        }
+
+        void pop() {
+            depth--;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import javassist.CannotCompileException;
+import javassist.ClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+import javassist.bytecode.BadBytecode;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Transform jar to jar in one pass, only classes referencing `@Wraps` are rewritten,
+ * other entries are copied with raw compressed data. Nested jars like `BOOT-INF/lib/*.jar` are
+ * transformed in memory. Signature files are removed from rewritten jars, since the signatures
+ * are broken by rewritten classes.
+ */
+class JarProcessor {
+    private static final String[] CLASSES_PREFIXES = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+
+    private final ClassPool classPool;
+    private final WrapsProcessor wrapsProcessor;
+    private int processed;
+
+    public JarProcessor() throws NotFoundException {
+        this.classPool = new ClassPool(true);
+        this.wrapsProcessor = new WrapsProcessor(classPool);
+    }
+
+    /**
+     * @param output    output jar, may be same as input jar.
+     * @return count of processed methods.
+     */
+    public int processJar(Path input, Path output)
+            throws IOException, NotFoundException, CannotCompileException, BadBytecode {
+        processed = 0;
+        Path tempFile = Files.createTempFile(output.toAbsolutePath().getParent(),
+                output.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                ZipArchive archive = new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                String url = "jar:" + input.toUri() + "!/";
+                List<ClassPath> classPaths = new ArrayList<>();
+                classPaths.add(new ArchiveClassPath(archive, url));
+                for (ZipArchive.Entry entry : archive.getEntries()) {
+                    if (isNestedJar(entry))
+                        classPaths.add(new NestedArchiveClassPath(archive, entry, url));
+                }
+                for (ClassPath classPath : classPaths)
+                    classPool.appendClassPath(classPath);
+                try {
+                    transform(archive, out);
+                } finally {
+                    for (ClassPath classPath : classPaths)
+                        classPool.removeClassPath(classPath);
+                }
+            }
+            Files.move(tempFile, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        System.out.println("total processed methods: " + processed);
+        return processed;
+    }
+
+    /**
+     * @return true if any entry is rewritten.
+     */
+    private boolean transform(ZipArchive archive, OutputStream out)
+            throws IOException, NotFoundException, CannotCompileException, BadBytecode {
+        // rewriting before writing, signature files are kept if nothing changed
+        Map<ZipArchive.Entry, byte[]> rewritten = new HashMap<>();
+        for (ZipArchive.Entry entry : archive.getEntries()) {
+            byte[] data = null;
+            if (isClass(entry)) {
+                byte[] bytecode = archive.getData(entry);
+                if (WrapsScanner.referencesWraps(bytecode))
+                    data = transformClass(bytecode);
+            } else if (isNestedJar(entry)) {
+                ByteArrayOutputStream nestedOut = new ByteArrayOutputStream((int) entry.size);
+                if (transform(archive.getNested(entry), nestedOut))
+                    data = nestedOut.toByteArray();
+            }
+            if (data != null)
+                rewritten.put(entry, data);
+        }
+
+        boolean changed = !rewritten.isEmpty();
+        ZipArchive.Writer writer = new ZipArchive.Writer(out);
+        for (ZipArchive.Entry entry : archive.getEntries()) {
+            byte[] data = rewritten.get(entry);
+            if (data != null)
+                writer.write(archive, entry, data);
+            else if (!changed || !isSignature(entry))
+                writer.copy(archive, entry);
+        }
+        writer.finish(archive.getComment());
+        return changed;
+    }
+
+    /**
+     * @return transformed class, null if unchanged.
+     */
+    private byte[] transformClass(byte[] bytecode)
+            throws IOException, NotFoundException, CannotCompileException, BadBytecode {
+        CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(bytecode));
+        try {
+            processed += wrapsProcessor.processClass(ctClass);
+            return ctClass.isModified() ? ctClass.toBytecode() : null;
+        } finally {
+            // clean avoid OOM
+            ctClass.detach();
+        }
+    }
+
+    private static boolean isClass(ZipArchive.Entry entry) {
+        return !entry.isDirectory() && entry.name.endsWith(".class") && !entry.name.endsWith("module-info.class");
+    }
+
+    private static boolean isNestedJar(ZipArchive.Entry entry) {
+        return !entry.isDirectory() && entry.name.endsWith(".jar");
+    }
+
+    /**
+     * @return true if entry is signature file of signed jar, like `META-INF/CERT.SF` and `META-INF/CERT.RSA`.
+     */
+    private static boolean isSignature(ZipArchive.Entry entry) {
+        String name = entry.name.toUpperCase(Locale.ROOT);
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0)
+            return false;
+        return name.startsWith("META-INF/SIG-") || name.endsWith(".SF") || name.endsWith(".RSA") ||
+                name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * @return class name of entry, null if entry is not a class can be loaded.
+     */
+    private static String toClassName(ZipArchive.Entry entry) {
+        if (!isClass(entry) || entry.name.startsWith("META-INF/"))
+            return null;
+        String name = entry.name;
+        for (String prefix : CLASSES_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                name = name.substring(prefix.length());
+                break;
+            }
+        }
+        return name.substring(0, name.length() - 6).replace('/', '.');
+    }
+
+    /**
+     * Class path of archive for resolving classes referenced by transformed classes.
+     */
+    private static class ArchiveClassPath implements ClassPath {
+        private final String url;
+        private ZipArchive archive;
+        private Map<String, ZipArchive.Entry> classes;
+
+        ArchiveClassPath(ZipArchive archive, String url) {
+            this.archive = archive;
+            this.url = url;
+        }
+
+        protected ZipArchive openArchive() throws IOException {
+            return archive;
+        }
+
+        private synchronized Map<String, ZipArchive.Entry> getClasses() throws IOException {
+            if (classes == null) {
+                archive = openArchive();
+                classes = new HashMap<>();
+                for (ZipArchive.Entry entry : archive.getEntries()) {
+                    String className = toClassName(entry);
+                    if (className != null)
+                        classes.put(className, entry);
+                }
+            }
+            return classes;
+        }
+
+        @Override
+        public InputStream openClassfile(String classname) throws NotFoundException {
+            try {
+                ZipArchive.Entry entry = getClasses().get(classname);
+                return entry != null ? new ByteArrayInputStream(archive.getData(entry)) : null;
+            } catch (IOException e) {
+                throw new NotFoundException("broken archive entry of " + classname, e);
+            }
+        }
+
+        @Override
+        public URL find(String classname) {
+            try {
+                ZipArchive.Entry entry = getClasses().get(classname);
+                if (entry == null)
+                    return null;
+                // nested jar url is not supported by default handler
+                return new URL(null, url + entry.name, new URLStreamHandler() {
+                    @Override
+                    protected URLConnection openConnection(URL u) {
+                        return new URLConnection(u) {
+                            @Override
+                            public void connect() {
+                                connected = true;
+                            }
+
+                            @Override
+                            public InputStream getInputStream() throws IOException {
+                                return new ByteArrayInputStream(archive.getData(entry));
+                            }
+                        };
+                    }
+                });
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+
+    /**
+     * Nested jar is opened when the first class is looking up, and shared with transforming.
+     */
+    private static class NestedArchiveClassPath extends ArchiveClassPath {
+        private final ZipArchive parent;
+        private final ZipArchive.Entry entry;
+
+        NestedArchiveClassPath(ZipArchive parent, ZipArchive.Entry entry, String parentUrl) {
+            super(null, "jar:" + parentUrl + entry.name + "!/");
+            this.parent = parent;
+            this.entry = entry;
+        }
+
+        @Override
+        protected ZipArchive openArchive() throws IOException {
+            return parent.getNested(entry);
+        }
+    }
+}
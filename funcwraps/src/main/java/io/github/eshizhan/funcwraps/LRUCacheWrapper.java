@@ -18,64 +18,218 @@
 package io.github.eshizhan.funcwraps;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+/**
+ * Caching result of wrapped method by arguments, using `wrap(N)` for caching at most N results.
+ * Options of expiring, refreshing and weight can be added, such as `wrap(1000, ttl=30s, refresh=20s)`
+ * or `wrap(100000, weight=64mb)`, see {@link CacheSpec}.
+ * Results are cached in {@link BoundedCache} per method, reading cached result is lock-free,
+ * and evicting by W-TinyLFU instead of strict LRU, frequently used results survive scanning.
+ *
+ * <p> The typed {@link #wrap(Invocation)} is selected for `&#064;Wraps(clazz = LRUCacheWrapper.class, method = "wrap(N)")`,
+ * the cache is created once and kept in static {@link WrapSite} of the transformed class, arguments are
+ * compared by `equals`, hitting cache allocates nothing.
+ *
+ * <p> Concurrent callers missing the same arguments are coalesced, only one of them calls wrapped method,
+ * others wait for its result or exception, protecting backend from stampede on cold start or eviction.
+ *
+ * <p> For method returning `CompletableFuture` or `CompletionStage`, the completed value is cached instead of
+ * the future, failed futures are not cached, and concurrent callers missing the same arguments share the
+ * pending future without blocking. Hitting cache returns a completed future.
+ *
+ * <p> With option `snapshot=60s`, results are saved into local file periodically and at shutdown,
+ * restored lazily after restarting, see {@link CacheSnapshot}.
+ *
+ * <p> Statistics of each cached method are available by {@link #stats(Class, String)}, and the cache is
+ * registered as {@link CacheMXBean} for monitoring, resizing and invalidating by JMX.
+ */
 public class LRUCacheWrapper {
-    private static final Map<String, Map<String, Object>> methodMap = new ConcurrentHashMap<>();
+    private static final Set<WrapSite> sites = ConcurrentHashMap.newKeySet();
+    private static final Map<Method, BoundedCache<Object, Object>> methodMap = new ConcurrentHashMap<>();
 
+    /**
+     * Remove results cached of the method.
+     *
+     * @return copy of results removed keyed by `Arrays.toString(args)`, null if not cached.
+     */
     public static Map<String, Object> remove(Class<?> wrapperClass, String methodName) {
-        String s = wrapperClass.getName() + "." + methodName;
-        return methodMap.remove(s);
+        Map<String, Object> removed = null;
+        for (WrapSite site : sites) {
+            if (site.getDeclaringClass() == wrapperClass && site.getMethodName().equals(methodName))
+                removed = drain(site.attachment(LRUCacheWrapper::newCache), removed);
+        }
+        Iterator<Map.Entry<Method, BoundedCache<Object, Object>>> it = methodMap.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Method, BoundedCache<Object, Object>> entry = it.next();
+            Method method = entry.getKey();
+            if (method.getDeclaringClass() == wrapperClass && wrappedMethodName(method).equals(methodName)) {
+                it.remove();
+                removed = drain(entry.getValue(), removed);
+                entry.getValue().close();
+                CacheMBean.unregister(WrapSite.signature(method));
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Mark results cached of the method stale, reloaded in background when hit next time, the stale
+     * result is returned until reloaded, no synchronous missing like {@link #remove(Class, String)}.
+     */
+    public static void refresh(Class<?> wrapperClass, String methodName) {
+        for (BoundedCache<Object, Object> cache : caches(wrapperClass, methodName))
+            cache.markStale();
+    }
+
+    /**
+     * @return statistics of results cached of the method, summed if overloaded, null if not cached.
+     */
+    public static CacheStats stats(Class<?> wrapperClass, String methodName) {
+        CacheStats stats = null;
+        for (BoundedCache<Object, Object> cache : caches(wrapperClass, methodName))
+            stats = stats == null ? cache.stats() : stats.plus(cache.stats());
+        return stats;
+    }
+
+    /**
+     * Change maximum size of results cached of the method, exceeded results are evicted immediately.
+     */
+    public static void resize(Class<?> wrapperClass, String methodName, long maximum) {
+        for (BoundedCache<Object, Object> cache : caches(wrapperClass, methodName))
+            cache.setMaximum(maximum);
+    }
+
+    private static List<BoundedCache<Object, Object>> caches(Class<?> wrapperClass, String methodName) {
+        List<BoundedCache<Object, Object>> caches = new ArrayList<>();
+        for (WrapSite site : sites) {
+            if (site.getDeclaringClass() == wrapperClass && site.getMethodName().equals(methodName))
+                caches.add(site.attachment(LRUCacheWrapper::newCache));
+        }
+        for (Map.Entry<Method, BoundedCache<Object, Object>> entry : methodMap.entrySet()) {
+            Method method = entry.getKey();
+            if (method.getDeclaringClass() == wrapperClass && wrappedMethodName(method).equals(methodName))
+                caches.add(entry.getValue());
+        }
+        return caches;
     }
 
     /**
-     * @param wrapParams    wrapParams[0] is max size of cache.
+     * @param invocation    `invocation.site().getWrapParams()` is options of cache, see {@link CacheSpec}.
+     */
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrapSite site = invocation.site();
+        Class<?> returnType = site.getReturnType();
+        if (returnType == void.class) {
+            invocation.proceed();
+            return;
+        }
+        BoundedCache<Object, Object> results = site.attachment(LRUCacheWrapper::newCache);
+
+        ArgsKey.Probe probe = ArgsKey.probe(invocation);
+        Object cacheResult;
+        try {
+            cacheResult = results.get(probe, invocation.target());
+        } finally {
+            probe.clear();
+        }
+        if (site.isAsync()) {
+            invocation.setResult(cacheResult != null ? CompletableFuture.completedFuture(cacheResult) :
+                    results.loadAsync(ArgsKey.of(invocation), () -> toStage(invocation.proceedObject(), true)));
+            return;
+        }
+        if (cacheResult != null) {
+            invocation.setBoxedResult(cacheResult);
+            return;
+        }
+
+        Object ret = results.load(ArgsKey.of(invocation), invocation::proceedObject);
+        invocation.setBoxedResult(ret);
+    }
+
+    /**
+     * @param wrapParams    options of cache, see {@link CacheSpec}.
      */
     public static Object wrap(Method method, Object[] args, Object target, String[] wrapParams) throws Throwable {
-        String methodName = method.getName();
-        methodName = methodName.substring(0, methodName.lastIndexOf(WrapsProcessorConst.WRAPPED_SUFFIX));
-        String methodKey = method.getDeclaringClass().getName() + "." + methodName;
-        String argsKey = Arrays.toString(args);
+        boolean async = WrapSite.isAsync(method.getReturnType());
+        BoundedCache<Object, Object> results = methodMap.get(method);
+        if (results == null) {
+            results = methodMap.computeIfAbsent(method, k -> newCache(
+                    CacheSpec.parse(wrapParams, method.getDeclaringClass().getClassLoader()),
+                    (key, context) -> toStage(method.invoke(context, ((ArgsKey) key).args()), async),
+                    method.getDeclaringClass(), WrapSite.signature(method), ArgsKey::of));
+        }
 
-        Object cacheResult = getFromCache(methodKey, argsKey, wrapParams);
+        ArgsKey.Probe probe = ArgsKey.probe(args);
+        Object cacheResult;
+        try {
+            cacheResult = results.get(probe, target);
+        } finally {
+            probe.clear();
+        }
+        if (async) {
+            return cacheResult != null ? CompletableFuture.completedFuture(cacheResult) :
+                    results.loadAsync(ArgsKey.of(args), () -> toStage(method.invoke(target, args), true));
+        }
         if (cacheResult != null)
             return cacheResult;
 //        System.out.println("### start");
-        Object ret = method.invoke(target, args);
-        if (ret != null) {
-            addToCache(methodKey, argsKey, ret);
-        }
+        Object ret = results.load(ArgsKey.of(args), () -> method.invoke(target, args));
 //        System.out.println("### end");
         return ret;
     }
 
-    private static void addToCache(String methodKey, String argsKey, Object ret) {
-        Map<String, Object> results = methodMap.get(methodKey);
-        results.put(argsKey, ret);
+    private static BoundedCache<Object, Object> newCache(WrapSite site) {
+        sites.add(site);
+        return newCache(CacheSpec.parse(site.getWrapParams(), site.getDeclaringClass().getClassLoader()),
+                (key, target) -> toStage(Invocation.invoke(site, target, (ArgsKey) key), site.isAsync()),
+                site.getDeclaringClass(), site.signature(), args -> ArgsKey.of(site, args));
     }
 
-    private static Object getFromCache(String methodKey, String argsKey, String[] wrapParams) {
-        int maxEntries = Integer.parseUnsignedInt(wrapParams[0]);
-        Object result = null;
-        if (methodMap.containsKey(methodKey)) {
-            Map<String, Object> results = methodMap.get(methodKey);
-            if (results.containsKey(argsKey))
-                result = results.get(argsKey);
-        } else {
-            LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>(maxEntries, 0.75f, true) {
-                private static final long serialVersionUID = 5685245246488195173L;
-
-                @Override
-                protected boolean removeEldestEntry(Map.Entry entry) {
-                    return size() > maxEntries;
-                }
-            };
-            methodMap.put(methodKey, Collections.synchronizedMap(map));
+    /**
+     * @param keyFactory    creating key by arguments for restoring snapshot.
+     */
+    private static BoundedCache<Object, Object> newCache(CacheSpec spec, BoundedCache.Reloader<Object, Object> reloader,
+                                                         Class<?> declaringClass, String signature,
+                                                         Function<Object[], Object> keyFactory) {
+        BoundedCache<Object, Object> cache = new BoundedCache<>(spec, reloader);
+        if (spec.getSnapshotIntervalNanos() > 0) {
+            cache.setSnapshot(CacheSnapshot.attach(cache, spec, declaringClass, signature, keyFactory,
+                    key -> ((ArgsKey) key).args()));
         }
-        return result;
+        CacheMBean.register(cache, signature);
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletionStage<Object> toStage(Object result, boolean async) {
+        return async ? (CompletionStage<Object>) result : CompletableFuture.completedFuture(result);
+    }
+
+    private static String wrappedMethodName(Method method) {
+        String methodName = method.getName();
+        int index = methodName.lastIndexOf(WrapsProcessorConst.WRAPPED_SUFFIX);
+        return index < 0 ? methodName : methodName.substring(0, index);
+    }
+
+    private static Map<String, Object> drain(BoundedCache<Object, Object> cache, Map<String, Object> removed) {
+        Map<Object, Object> results = cache.snapshot();
+        cache.clear();
+        if (results.isEmpty())
+            return removed;
+        if (removed == null)
+            removed = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : results.entrySet())
+            removed.put(entry.getKey().toString(), entry.getValue());
+        return removed;
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registering MBeans of wrappers in platform MBean server, named as
+ * `io.github.eshizhan.funcwraps:type=WrapperName,name="com.example.Foo.find(long)"`.
+ * Failing to register is ignored, wrappers still work without JMX.
+ */
+final class MBeanRegistry {
+    static final String DOMAIN = "io.github.eshizhan.funcwraps";
+
+    private MBeanRegistry() {
+    }
+
+    /**
+     * Register bean, replacing the one registered by same name, such as the class loaded again.
+     */
+    static void register(String type, String signature, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type, signature);
+            try {
+                server.registerMBean(bean, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(bean, name);
+            }
+        } catch (JMException | SecurityException e) {
+            // JMX is unavailable
+        }
+    }
+
+    static void unregister(String type, String signature) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type, signature);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            // JMX is unavailable
+        }
+    }
+
+    static ObjectName objectName(String type, String signature) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(signature));
+    }
+}
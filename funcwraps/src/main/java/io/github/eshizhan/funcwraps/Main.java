@@ -20,16 +20,45 @@ package io.github.eshizhan.funcwraps;
 import javassist.NotFoundException;
 
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class Main {
+    /**
+     * java -jar funcwraps.jar classes/path [--workers=N] [--no-incremental]
+     * java -jar funcwraps.jar app.jar [--output=transformed.jar]
+     */
     public static void main(String[] args) throws Throwable {
         System.out.println("transform class by funcwraps");
         Path classPath = Paths.get(args[0]);
+        Path output = classPath;
+        int workers = 1;
+        boolean incremental = true;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--workers="))
+                workers = Integer.parseInt(args[i].substring("--workers=".length()));
+            else if (args[i].equals("--no-incremental"))
+                incremental = false;
+            else if (args[i].startsWith("--output="))
+                output = Paths.get(args[i].substring("--output=".length()));
+            else
+                throw new IllegalArgumentException("unknown argument: " + args[i]);
+        }
 
-        WrapsProcessor wrapsProcessor = new WrapsProcessor(classPath);
-        wrapsProcessor.processClassPath();
+        if (Files.isRegularFile(classPath)) {
+            // jar is transformed in one pass without manifest of class path
+            if (workers != 1 || !incremental)
+                throw new IllegalArgumentException("--workers and --no-incremental are not supported for jar");
+            new JarProcessor().processJar(classPath, output);
+        } else {
+            if (!output.equals(classPath))
+                throw new IllegalArgumentException("--output is only supported for jar");
+            WrapsProcessor wrapsProcessor = new WrapsProcessor(classPath);
+            wrapsProcessor.setWorkers(workers);
+            wrapsProcessor.setIncremental(incremental);
+            wrapsProcessor.processClassPath();
+        }
     }
 
     /**
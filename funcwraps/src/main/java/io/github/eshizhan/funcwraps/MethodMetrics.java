@@ -0,0 +1,125 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and errors of a wrapped method, registered as {@link MetricsMXBean}.
+ */
+final class MethodMetrics implements MetricsMXBean {
+    static final String TYPE = "MetricsWrapper";
+
+    private final String signature;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ConcurrentHashMap<Class<?>, LongAdder> errors = new ConcurrentHashMap<>();
+
+    MethodMetrics(String signature) {
+        this.signature = signature;
+    }
+
+    void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * Record latency and error when the stage completed, without blocking.
+     */
+    void recordCompletion(CompletionStage<?> stage, long startTime) {
+        stage.whenComplete((value, e) -> {
+            if (e != null)
+                recordError(e);
+            record(System.nanoTime() - startTime);
+        });
+    }
+
+    /**
+     * @param e     cause is counted if thrown by reflective calling or wrapped by completion.
+     */
+    void recordError(Throwable e) {
+        if ((e instanceof InvocationTargetException || e instanceof CompletionException) && e.getCause() != null)
+            e = e.getCause();
+        LongAdder counter = errors.get(e.getClass());
+        if (counter == null)
+            counter = errors.computeIfAbsent(e.getClass(), k -> new LongAdder());
+        counter.increment();
+    }
+
+    MetricsSnapshot snapshot() {
+        Map<String, Long> errorCounts = new HashMap<>();
+        for (Map.Entry<Class<?>, LongAdder> entry : errors.entrySet())
+            errorCounts.merge(entry.getKey().getName(), entry.getValue().sum(), Long::sum);
+        return new MetricsSnapshot(signature, histogram.counts(), histogram.sum(), errorCounts);
+    }
+
+    @Override
+    public String getMethod() {
+        return signature;
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().count();
+    }
+
+    @Override
+    public double getMean() {
+        return snapshot().mean();
+    }
+
+    @Override
+    public long getP50() {
+        return snapshot().percentile(0.5);
+    }
+
+    @Override
+    public long getP90() {
+        return snapshot().percentile(0.9);
+    }
+
+    @Override
+    public long getP99() {
+        return snapshot().percentile(0.99);
+    }
+
+    @Override
+    public long getP999() {
+        return snapshot().percentile(0.999);
+    }
+
+    @Override
+    public long getMax() {
+        return snapshot().max();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return snapshot().errorCount();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return snapshot().errors();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.Map;
+
+/**
+ * Management interface of a method wrapped by {@link MetricsWrapper}, registered in platform MBean server as
+ * `io.github.eshizhan.funcwraps:type=MetricsWrapper,name="com.example.Foo.find(long)"`.
+ * Latency is in nanoseconds.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return signature of wrapped method.
+     */
+    String getMethod();
+
+    long getCount();
+
+    double getMean();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    long getP999();
+
+    long getMax();
+
+    long getErrorCount();
+
+    /**
+     * @return count of exceptions thrown keyed by class name.
+     */
+    Map<String, Long> getErrors();
+}
@@ -0,0 +1,128 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of latency histogram and errors of a method wrapped by {@link MetricsWrapper}.
+ * Latency is in nanoseconds, percentiles are upper bound of the bucket, at most 12.5% larger than recorded.
+ */
+public final class MetricsSnapshot {
+    private final String method;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final Map<String, Long> errors;
+
+    MetricsSnapshot(String method, long[] counts, long sum, Map<String, Long> errors) {
+        this.method = method;
+        this.counts = counts;
+        long count = 0;
+        for (long c : counts)
+            count += c;
+        this.count = count;
+        this.sum = sum;
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return signature of wrapped method, such as `com.example.Foo.find(long)`.
+     */
+    public String method() {
+        return method;
+    }
+
+    /**
+     * @return count of calling, including calling thrown exception.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return total nanoseconds of calling.
+     */
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * @return 0 if not called.
+     */
+    public double mean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * @param quantile  in [0, 1], such as 0.99.
+     * @return nanoseconds, 0 if not called.
+     */
+    public long percentile(double quantile) {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("quantile must be in [0, 1]: " + quantile);
+        return LatencyHistogram.percentile(counts, count, quantile);
+    }
+
+    /**
+     * @return nanoseconds, 0 if not called.
+     */
+    public long max() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0)
+                return LatencyHistogram.bucketUpperBound(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @return count of exceptions thrown keyed by class name.
+     */
+    public Map<String, Long> errors() {
+        return errors;
+    }
+
+    public long errorCount() {
+        long errorCount = 0;
+        for (long c : errors.values())
+            errorCount += c;
+        return errorCount;
+    }
+
+    /**
+     * @return merged snapshot, such as overloaded methods.
+     */
+    public MetricsSnapshot plus(MetricsSnapshot other) {
+        long[] merged = counts.clone();
+        for (int i = 0; i < merged.length; i++)
+            merged[i] += other.counts[i];
+        Map<String, Long> mergedErrors = new HashMap<>(errors);
+        for (Map.Entry<String, Long> entry : other.errors.entrySet())
+            mergedErrors.merge(entry.getKey(), entry.getValue(), Long::sum);
+        return new MetricsSnapshot(method, merged, sum + other.sum, mergedErrors);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{method=" + method + ", count=" + count + ", mean=" + mean() +
+                ", p50=" + percentile(0.5) + ", p99=" + percentile(0.99) + ", max=" + max() +
+                ", errors=" + errors + "}";
+    }
+}
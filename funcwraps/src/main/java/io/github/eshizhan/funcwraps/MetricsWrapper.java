@@ -0,0 +1,183 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recording latency and exceptions of wrapped method, using as `&#064;Wraps(clazz = MetricsWrapper.class, method = "wrap")`.
+ * Latency is recorded into lock-free {@link LatencyHistogram} per method, exceptions are counted by class,
+ * the typed {@link #wrap(Invocation)} allocates nothing, so it can be kept on hot paths permanently.
+ * For method returning `CompletableFuture` or `CompletionStage`, latency is recorded until completion,
+ * and exceptions completing the future are counted.
+ *
+ * <p> Snapshots are available by {@link #snapshot(Class, String)}, registered as {@link MetricsMXBean},
+ * and exported in Prometheus text format by {@link #scrape()} or HTTP server started by
+ * {@link #startHttpServer(int)}.
+ */
+public class MetricsWrapper {
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, MethodMetrics> metricsMap = new ConcurrentHashMap<>();
+    private static final Map<Method, MethodMetrics> methodMap = new ConcurrentHashMap<>();
+
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrapSite site = invocation.site();
+        MethodMetrics metrics = site.attachment(MetricsWrapper::newMetrics);
+        long startTime = System.nanoTime();
+        try {
+            invocation.proceed();
+        } catch (Throwable e) {
+            metrics.recordError(e);
+            metrics.record(System.nanoTime() - startTime);
+            throw e;
+        }
+        Object result;
+        if (site.isAsync() && (result = invocation.result()) != null)
+            metrics.recordCompletion((CompletionStage<?>) result, startTime);
+        else
+            metrics.record(System.nanoTime() - startTime);
+    }
+
+    public static Object wrap(Method method, Object[] args, Object target) throws Throwable {
+        MethodMetrics metrics = methodMap.get(method);
+        if (metrics == null)
+            metrics = methodMap.computeIfAbsent(method, k -> newMetrics(WrapSite.signature(method)));
+        long startTime = System.nanoTime();
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (Throwable e) {
+            metrics.recordError(e);
+            metrics.record(System.nanoTime() - startTime);
+            throw e;
+        }
+        if (result instanceof CompletionStage && WrapSite.isAsync(method.getReturnType()))
+            metrics.recordCompletion((CompletionStage<?>) result, startTime);
+        else
+            metrics.record(System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * @return snapshot of the method, merged if overloaded, null if not called.
+     */
+    public static MetricsSnapshot snapshot(Class<?> wrapperClass, String methodName) {
+        String prefix = wrapperClass.getName() + "." + methodName + "(";
+        MetricsSnapshot snapshot = null;
+        for (MethodMetrics metrics : metricsMap.values()) {
+            if (metrics.getMethod().startsWith(prefix))
+                snapshot = snapshot == null ? metrics.snapshot() : snapshot.plus(metrics.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return snapshots of all methods wrapped.
+     */
+    public static List<MetricsSnapshot> snapshots() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (MethodMetrics metrics : metricsMap.values())
+            snapshots.add(metrics.snapshot());
+        return snapshots;
+    }
+
+    /**
+     * Latency in seconds as summary `funcwraps_method_duration_seconds` with quantiles,
+     * and exceptions as counter `funcwraps_method_errors_total`, labeled by method signature.
+     *
+     * @return metrics of all methods wrapped in Prometheus text format.
+     */
+    public static String scrape() {
+        List<MetricsSnapshot> snapshots = snapshots();
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP funcwraps_method_duration_seconds Latency of methods wrapped by MetricsWrapper.\n");
+        sb.append("# TYPE funcwraps_method_duration_seconds summary\n");
+        for (MetricsSnapshot snapshot : snapshots) {
+            String method = escapeLabel(snapshot.method());
+            for (double quantile : QUANTILES) {
+                sb.append("funcwraps_method_duration_seconds{method=\"").append(method)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(snapshot.percentile(quantile) / 1e9).append('\n');
+            }
+            sb.append("funcwraps_method_duration_seconds_sum{method=\"").append(method).append("\"} ")
+                    .append(snapshot.sum() / 1e9).append('\n');
+            sb.append("funcwraps_method_duration_seconds_count{method=\"").append(method).append("\"} ")
+                    .append(snapshot.count()).append('\n');
+        }
+        sb.append("# HELP funcwraps_method_errors_total Exceptions thrown by methods wrapped by MetricsWrapper.\n");
+        sb.append("# TYPE funcwraps_method_errors_total counter\n");
+        for (MetricsSnapshot snapshot : snapshots) {
+            String method = escapeLabel(snapshot.method());
+            for (Map.Entry<String, Long> entry : snapshot.errors().entrySet()) {
+                sb.append("funcwraps_method_errors_total{method=\"").append(method)
+                        .append("\",exception=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                        .append(entry.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Start HTTP server serving {@link #scrape()} at path `/metrics`, the server should be stopped by
+     * `server.stop(0)`, otherwise JVM is kept running.
+     *
+     * @param port  0 for any free port, got by `server.getAddress().getPort()`.
+     */
+    public static HttpServer startHttpServer(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PROMETHEUS_CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static MethodMetrics newMetrics(WrapSite site) {
+        return newMetrics(site.signature());
+    }
+
+    private static MethodMetrics newMetrics(String signature) {
+        return metricsMap.computeIfAbsent(signature, k -> {
+            MethodMetrics metrics = new MethodMetrics(signature);
+            MBeanRegistry.register(MethodMetrics.TYPE, signature, metrics);
+            return metrics;
+        });
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Off-heap tier of cache, values serialized into direct `ByteBuffer` or memory-mapped file, only keys
+ * and positions are kept on heap.
+ *
+ * <p> The capacity is divided into segments at most 1GB, keys are spread to segments by hash. Each segment
+ * is a ring buffer appending values, when the ring is full the oldest values are overwritten, so the tier
+ * evicts by FIFO without fragmentation.
+ */
+final class OffHeapStore<K> {
+    private static final long MAX_SEGMENT = 1L << 30;
+    private static final long MIN_STRIPED_SEGMENT = 1L << 20;
+
+    private final Segment<K>[] segments;
+    private final Serializer serializer;
+    private final Path file;
+    private final FileChannel channel;
+
+    /**
+     * @param file  memory-mapped file, deleted when closed or JVM exits, null for direct buffers which are
+     *              limited by `-XX:MaxDirectMemorySize`.
+     */
+    @SuppressWarnings("unchecked")
+    OffHeapStore(long capacity, Path file, Serializer serializer) throws IOException {
+        int count = (int) ((capacity + MAX_SEGMENT - 1) / MAX_SEGMENT);
+        int stripes = Math.min(16, Runtime.getRuntime().availableProcessors());
+        if (capacity / stripes >= MIN_STRIPED_SEGMENT)
+            count = Math.max(count, stripes);
+        long segmentSize = capacity / count;
+
+        this.serializer = serializer;
+        this.segments = new Segment[count];
+        this.file = file;
+        this.channel = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // values are useless without keys on heap after restarting
+        if (file != null)
+            file.toFile().deleteOnExit();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = channel == null ? allocateDirect(segmentSize, capacity) :
+                    channel.map(FileChannel.MapMode.READ_WRITE, i * segmentSize, segmentSize);
+            segments[i] = new Segment<>(buffer);
+        }
+    }
+
+    private static ByteBuffer allocateDirect(long segmentSize, long capacity) throws IOException {
+        try {
+            return ByteBuffer.allocateDirect((int) segmentSize);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("off-heap capacity " + capacity + " exceeds direct memory, which is limited by " +
+                    "-XX:MaxDirectMemorySize as maximum heap size by default, or use `offheapFile`", e);
+        }
+    }
+
+    /**
+     * Store value demoted from heap, dropped if it can not be serialized or larger than segment.
+     */
+    void put(K key, Object value, long writeTime) {
+        byte[] bytes;
+        try {
+            bytes = serializer.serialize(value);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        segmentFor(key).put(key, bytes, writeTime);
+    }
+
+    /**
+     * Remove value promoted to heap.
+     *
+     * @return null if absent or can not be deserialized.
+     */
+    Entry remove(K key) {
+        Segment<K> segment = segmentFor(key);
+        byte[] bytes;
+        long writeTime;
+        synchronized (segment) {
+            Slot<K> slot = segment.index.remove(key);
+            if (slot == null)
+                return null;
+            slot.live = false;
+            bytes = segment.read(slot);
+            writeTime = slot.writeTime;
+        }
+        try {
+            return new Entry(serializer.deserialize(bytes), writeTime);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remove value without deserializing.
+     */
+    void discard(K key) {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment) {
+            Slot<K> slot = segment.index.remove(key);
+            if (slot != null)
+                segment.release(slot);
+        }
+    }
+
+    void clear() {
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                segment.index.clear();
+                segment.fifo.clear();
+                segment.head = 0;
+                segment.used = 0;
+            }
+        }
+    }
+
+    void close() {
+        clear();
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // mapped buffers are released by GC, file may be deleted at exit if still mapped
+            }
+        }
+    }
+
+    /**
+     * @return count of values stored.
+     */
+    long size() {
+        long size = 0;
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                size += segment.index.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes of values stored.
+     */
+    long usedBytes() {
+        long used = 0;
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                used += segment.used;
+            }
+        }
+        return used;
+    }
+
+    private Segment<K> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & Integer.MAX_VALUE) % segments.length];
+    }
+
+    static final class Entry {
+        final Object value;
+        final long writeTime;
+
+        Entry(Object value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    private static final class Slot<K> {
+        final K key;
+        final int offset;
+        final int length;
+        final long writeTime;
+        boolean live = true;
+
+        Slot(K key, int offset, int length, long writeTime) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Ring buffer of values, slots in append order are also in position order from head.
+     */
+    private static final class Segment<K> {
+        final ByteBuffer buffer;
+        final Map<K, Slot<K>> index = new HashMap<>();
+        final ArrayDeque<Slot<K>> fifo = new ArrayDeque<>();
+        int head;
+        long used;
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        synchronized void put(K key, byte[] bytes, long writeTime) {
+            int capacity = buffer.capacity();
+            if (bytes.length > capacity)
+                return;
+            Slot<K> prior = index.remove(key);
+            if (prior != null)
+                release(prior);
+            if (head + bytes.length > capacity) {
+                evictRange(head, capacity);
+                head = 0;
+            }
+            evictRange(head, head + bytes.length);
+
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).position(head);
+            view.put(bytes);
+            Slot<K> slot = new Slot<>(key, head, bytes.length, writeTime);
+            fifo.addLast(slot);
+            index.put(key, slot);
+            head += bytes.length;
+            used += bytes.length;
+        }
+
+        byte[] read(Slot<K> slot) {
+            byte[] bytes = new byte[slot.length];
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).position(slot.offset);
+            view.get(bytes);
+            used -= slot.length;
+            return bytes;
+        }
+
+        void release(Slot<K> slot) {
+            slot.live = false;
+            used -= slot.length;
+        }
+
+        private void evictRange(int from, int to) {
+            Slot<K> slot;
+            while ((slot = fifo.peekFirst()) != null && slot.offset < to && slot.offset + slot.length > from) {
+                fifo.pollFirst();
+                if (slot.live) {
+                    index.remove(slot.key, slot);
+                    release(slot);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.IOException;
+
+/**
+ * Serializing cached result for storing in off-heap tier of cache, using option `serializer=class.name`
+ * for specifying implementation, which must have public constructor without arguments.
+ * {@link JavaSerializer} is used by default.
+ */
+public interface Serializer {
+    byte[] serialize(Object value) throws IOException;
+
+    Object deserialize(byte[] bytes) throws IOException;
+}
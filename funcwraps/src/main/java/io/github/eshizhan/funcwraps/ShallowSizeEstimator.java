@@ -0,0 +1,81 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Estimating heap bytes of object by layout of HotSpot, the size of instance is header and its fields aligned
+ * to 8 bytes, the objects referenced by fields are not counted, except arrays and `String` which counted
+ * with their elements. Compressed references are assumed if maximum heap is less than 32GB.
+ */
+public class ShallowSizeEstimator implements Weigher {
+    private static final boolean COMPRESSED_OOPS = Runtime.getRuntime().maxMemory() < (32L << 30);
+    private static final int REFERENCE_SIZE = COMPRESSED_OOPS ? 4 : 8;
+    private static final int OBJECT_HEADER = COMPRESSED_OOPS ? 12 : 16;
+    private static final int ARRAY_HEADER = COMPRESSED_OOPS ? 16 : 24;
+
+    private static final ClassValue<Long> INSTANCE_SIZES = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()))
+                        size += fieldSize(field.getType());
+                }
+            }
+            return align(size);
+        }
+    };
+
+    @Override
+    public long weigh(Object value) {
+        return sizeOf(value);
+    }
+
+    public static long sizeOf(Object value) {
+        if (value == null)
+            return 0;
+        Class<?> type = value.getClass();
+        if (type.isArray())
+            return align(ARRAY_HEADER + (long) java.lang.reflect.Array.getLength(value) *
+                    fieldSize(type.getComponentType()));
+        long size = INSTANCE_SIZES.get(type);
+        if (value instanceof String)
+            size += align(ARRAY_HEADER + ((String) value).length() * 2L);
+        return size;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class)
+            return 8;
+        if (type == int.class || type == float.class)
+            return 4;
+        if (type == short.class || type == char.class)
+            return 2;
+        if (type == byte.class || type == boolean.class)
+            return 1;
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
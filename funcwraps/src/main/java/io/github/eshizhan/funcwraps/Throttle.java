@@ -0,0 +1,194 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rate limit and bulkhead of a wrapped method, acquiring and releasing by CAS without locks.
+ *
+ * <p> Rate is limited by token bucket in form of GCRA, the only state is the theoretical arrival time of next
+ * call, each call moves it forward by the interval of rate, the call is allowed if it is no more than `burst`
+ * intervals ahead of now. Waiting for rate reserves the time by CAS then parks until it comes.
+ *
+ * <p> Concurrency is limited by counter of calls in flight, waiting for a slot parks with exponential backoff
+ * until the deadline. The slot of concurrency is acquired before rate, so calls rejected by concurrency never
+ * use up rate. Waiting is failed fast by interrupting, keeping the interrupt status.
+ *
+ * <p> Options:
+ * <ul>
+ * <li> `rate`, such as `rate=100/s`, unit can be `ms`, `s` or `m`, unlimited by default.
+ * <li> `burst`, count of calls allowed at once after idle, 1 by default.
+ * <li> `maxConcurrent`, maximum count of calls in flight, unlimited by default.
+ * <li> `wait`, maximum duration for waiting for rate and concurrency such as `wait=50ms`, failing fast with
+ *      {@link ThrottledException} by default.
+ * </ul>
+ */
+final class Throttle {
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxConcurrent;
+    private final long waitNanos;
+    private final AtomicLong nextArrival = new AtomicLong(System.nanoTime());
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Throttle(long intervalNanos, int burst, int maxConcurrent, long waitNanos) {
+        this.intervalNanos = intervalNanos;
+        this.toleranceNanos = intervalNanos * burst;
+        this.maxConcurrent = maxConcurrent;
+        this.waitNanos = waitNanos;
+    }
+
+    static Throttle parse(String[] wrapParams) {
+        long intervalNanos = 0;
+        int burst = 1;
+        int maxConcurrent = 0;
+        long waitNanos = 0;
+        for (String param : wrapParams) {
+            param = param.trim();
+            int index = param.indexOf('=');
+            String name = index < 0 ? param : param.substring(0, index).trim();
+            String value = index < 0 ? "" : param.substring(index + 1).trim();
+            switch (name) {
+                case "rate":
+                    intervalNanos = parseRate(value);
+                    break;
+                case "burst":
+                    burst = Integer.parseInt(value);
+                    break;
+                case "maxConcurrent":
+                    maxConcurrent = Integer.parseInt(value);
+                    break;
+                case "wait":
+                    waitNanos = CacheSpec.parseDuration(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option of ThrottleWrapper: " + param);
+            }
+        }
+        if (burst < 1)
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        if (maxConcurrent < 0)
+            throw new IllegalArgumentException("maxConcurrent must not be negative: " + maxConcurrent);
+        return new Throttle(intervalNanos, burst, maxConcurrent, waitNanos);
+    }
+
+    /**
+     * @return interval of calls in nanoseconds.
+     */
+    static long parseRate(String value) {
+        int index = value.indexOf('/');
+        if (index < 0)
+            throw new IllegalArgumentException("rate must be count per unit, such as 100/s: " + value);
+        long count = Long.parseLong(value.substring(0, index).trim());
+        if (count <= 0)
+            throw new IllegalArgumentException("rate must be positive: " + value);
+        long unitNanos;
+        switch (value.substring(index + 1).trim()) {
+            case "ms":
+                unitNanos = TimeUnit.MILLISECONDS.toNanos(1);
+                break;
+            case "s":
+                unitNanos = TimeUnit.SECONDS.toNanos(1);
+                break;
+            case "m":
+                unitNanos = TimeUnit.MINUTES.toNanos(1);
+                break;
+            default:
+                throw new IllegalArgumentException("unit of rate must be ms, s or m: " + value);
+        }
+        return Math.max(1, unitNanos / count);
+    }
+
+    /**
+     * Acquire rate and slot of concurrency, must be released by {@link #release()} if returned.
+     *
+     * @throws ThrottledException   if not acquired within waiting duration.
+     */
+    void acquire() {
+        long deadline = waitNanos > 0 ? System.nanoTime() + waitNanos : 0;
+        if (maxConcurrent > 0)
+            acquireConcurrency(deadline);
+        if (intervalNanos > 0) {
+            try {
+                acquireRate(deadline);
+            } catch (ThrottledException e) {
+                release();
+                throw e;
+            }
+        }
+    }
+
+    void release() {
+        if (maxConcurrent > 0)
+            inFlight.decrementAndGet();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private void acquireRate(long deadline) {
+        while (true) {
+            long now = System.nanoTime();
+            long arrival = nextArrival.get();
+            long next = Math.max(arrival, now) + intervalNanos;
+            long delay = next - now - toleranceNanos;
+            if (delay > 0 && (deadline == 0 || now + delay - deadline > 0))
+                throw new ThrottledException("rate limit exceeded");
+            if (nextArrival.compareAndSet(arrival, next)) {
+                // reserved, waiting until the time comes
+                while (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                    if (Thread.currentThread().isInterrupted()) {
+                        // giving back the time unless reserved by later calls
+                        nextArrival.compareAndSet(next, next - intervalNanos);
+                        throw new ThrottledException("interrupted while waiting for rate");
+                    }
+                    delay = next - toleranceNanos - System.nanoTime();
+                }
+                return;
+            }
+        }
+    }
+
+    private void acquireConcurrency(long deadline) {
+        long backoff = MIN_BACKOFF_NANOS;
+        while (true) {
+            int current = inFlight.get();
+            if (current < maxConcurrent) {
+                if (inFlight.compareAndSet(current, current + 1))
+                    return;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (deadline == 0 || remaining <= 0)
+                throw new ThrottledException("maximum concurrency " + maxConcurrent + " exceeded");
+            LockSupport.parkNanos(this, Math.min(backoff, remaining));
+            if (Thread.currentThread().isInterrupted())
+                throw new ThrottledException("interrupted while waiting for concurrency");
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limiting rate and concurrency of wrapped method, using as
+ * `&#064;Wraps(clazz = ThrottleWrapper.class, method = "wrap(rate=100/s, burst=10, maxConcurrent=8, wait=50ms)")`,
+ * see {@link Throttle} for options. Calls rejected throw {@link ThrottledException} immediately by default,
+ * or after waiting at most the duration of option `wait`. Acquiring and releasing are lock-free.
+ *
+ * <p> For method returning `CompletableFuture` or `CompletionStage`, the slot of concurrency is held until
+ * completion, and calls rejected return failed future instead of throwing.
+ */
+public class ThrottleWrapper {
+    private static final Map<Method, Throttle> methodMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param invocation    `invocation.site().getWrapParams()` is options.
+     */
+    public static void wrap(Invocation invocation) throws Throwable {
+        WrapSite site = invocation.site();
+        Throttle throttle = site.attachment(ThrottleWrapper::newThrottle);
+        try {
+            throttle.acquire();
+        } catch (ThrottledException e) {
+            if (!site.isAsync())
+                throw e;
+            invocation.setResult(failedFuture(e));
+            return;
+        }
+        boolean released = false;
+        try {
+            invocation.proceed();
+            Object result;
+            if (site.isAsync() && (result = invocation.result()) != null) {
+                ((CompletionStage<?>) result).whenComplete((value, e) -> throttle.release());
+                released = true;
+            }
+        } finally {
+            if (!released)
+                throttle.release();
+        }
+    }
+
+    /**
+     * @param wrapParams    options, see {@link Throttle}.
+     */
+    public static Object wrap(Method method, Object[] args, Object target, String[] wrapParams) throws Throwable {
+        Throttle throttle = methodMap.get(method);
+        if (throttle == null)
+            throttle = methodMap.computeIfAbsent(method, k -> Throttle.parse(wrapParams));
+        boolean async = WrapSite.isAsync(method.getReturnType());
+        try {
+            throttle.acquire();
+        } catch (ThrottledException e) {
+            if (!async)
+                throw e;
+            return failedFuture(e);
+        }
+        boolean released = false;
+        try {
+            Object result = method.invoke(target, args);
+            if (async && result != null) {
+                Throttle acquired = throttle;
+                ((CompletionStage<?>) result).whenComplete((value, e) -> acquired.release());
+                released = true;
+            }
+            return result;
+        } finally {
+            if (!released)
+                throttle.release();
+        }
+    }
+
+    private static Throttle newThrottle(WrapSite site) {
+        return Throttle.parse(site.getWrapParams());
+    }
+
+    private static CompletableFuture<Object> failedFuture(Throwable e) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+/**
+ * Calculating weight of cached result, such as bytes of heap used, for bounding cache by weight
+ * with option `weight`, using option `weigher=class.name` for specifying implementation, which must
+ * have public constructor without arguments. {@link ShallowSizeEstimator} is used by default.
+ */
+@FunctionalInterface
+public interface Weigher {
+    /**
+     * @return weight of value, must not be negative.
+     */
+    long weigh(Object value);
+}
@@ -0,0 +1,76 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Weight budget shared by caches, configured by system property `funcwraps.cache.weight`, such as `512mb`.
+ * When total weight exceeded, victims are evicted from the cache with largest weight.
+ */
+final class WeightBudget {
+    private final long maximum;
+    private final AtomicLong weight = new AtomicLong();
+    private final List<BoundedCache<?, ?>> members = new CopyOnWriteArrayList<>();
+
+    WeightBudget(long maximum) {
+        this.maximum = maximum;
+    }
+
+    void register(BoundedCache<?, ?> cache) {
+        members.add(cache);
+    }
+
+    void unregister(BoundedCache<?, ?> cache) {
+        members.remove(cache);
+    }
+
+    void add(long delta) {
+        weight.addAndGet(delta);
+    }
+
+    boolean isOver() {
+        return weight.get() > maximum;
+    }
+
+    long getMaximum() {
+        return maximum;
+    }
+
+    long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Evict from the largest cache until total weight under budget, caches being maintained by
+     * other threads are skipped.
+     */
+    void evict() {
+        while (isOver()) {
+            BoundedCache<?, ?> largest = null;
+            for (BoundedCache<?, ?> cache : members) {
+                if (cache.weightedSize() > 0 && (largest == null || cache.weightedSize() > largest.weightedSize()))
+                    largest = cache;
+            }
+            if (largest == null || !largest.evictForBudget())
+                return;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * A wrapped method call site, generated as static field on the transformed class,
+ * created once when the class initialized.
+ */
+public final class WrapSite {
+    private static final MethodType PROCEED_TYPE = MethodType.methodType(void.class, Invocation.class);
+
+    private final Class<?> declaringClass;
+    private final String methodName;
+    private final Class<?>[] parameterTypes;
+    private final Class<?> returnType;
+    private final String[] wrapParams;
+    private final MethodHandle proceedHandle;
+    private final boolean async;
+    private volatile Object attachment;
+
+    /**
+     * @param lookup        lookup of the transformed class.
+     * @param proceedName   static method `void proceedName(Invocation)` calling wrapped method.
+     */
+    public WrapSite(MethodHandles.Lookup lookup, String methodName, Class<?>[] parameterTypes, Class<?> returnType,
+                    String[] wrapParams, String proceedName) throws ReflectiveOperationException {
+        this.declaringClass = lookup.lookupClass();
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+        this.wrapParams = wrapParams;
+        this.async = isAsync(returnType);
+        this.proceedHandle = proceedName != null ?
+                lookup.findStatic(declaringClass, proceedName, PROCEED_TYPE) : null;
+    }
+
+    public Class<?> getDeclaringClass() {
+        return declaringClass;
+    }
+
+    /**
+     * the original name of wrapped method.
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes.clone();
+    }
+
+    public int getParameterCount() {
+        return parameterTypes.length;
+    }
+
+    public Class<?> getParameterType(int index) {
+        return parameterTypes[index];
+    }
+
+    public Class<?> getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * @return true if return type is `CompletableFuture` or `CompletionStage`, wrappers should compose on
+     * completion of the returned stage instead of the returning.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return true if the return type is `CompletableFuture` or `CompletionStage`.
+     */
+    public static boolean isAsync(Class<?> returnType) {
+        return returnType == CompletableFuture.class || returnType == CompletionStage.class;
+    }
+
+    /**
+     * @return parameters in annotation element `method`, empty array if none.
+     */
+    public String[] getWrapParams() {
+        return wrapParams.clone();
+    }
+
+    /**
+     * Per call site state of wrapper, such as cache, created by factory at first calling.
+     * Wrapper should pass non-capturing lambda as factory for avoiding allocation.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T attachment(Function<? super WrapSite, ? extends T> factory) {
+        Object value = attachment;
+        if (value == null) {
+            synchronized (this) {
+                value = attachment;
+                if (value == null)
+                    attachment = value = factory.apply(this);
+            }
+        }
+        return (T) value;
+    }
+
+    /**
+     * @return such as `com.example.Foo.find(long)`.
+     */
+    public String signature() {
+        return signature(declaringClass, methodName, parameterTypes);
+    }
+
+    /**
+     * @param method    wrapped method renamed by processor, or the original method.
+     * @return signature of the original method.
+     */
+    public static String signature(Method method) {
+        String methodName = method.getName();
+        int index = methodName.lastIndexOf(WrapsProcessorConst.WRAPPED_SUFFIX);
+        return signature(method.getDeclaringClass(), index < 0 ? methodName : methodName.substring(0, index),
+                method.getParameterTypes());
+    }
+
+    private static String signature(Class<?> clazz, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder sb = new StringBuilder(clazz.getName()).append('.').append(methodName).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(parameterTypes[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+
+    MethodHandle getProceedHandle() {
+        return proceedHandle;
+    }
+
+    @Override
+    public String toString() {
+        return declaringClass.getName() + "." + methodName;
+    }
+}
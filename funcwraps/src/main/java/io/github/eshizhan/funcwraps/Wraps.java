@@ -18,6 +18,7 @@
 package io.github.eshizhan.funcwraps;
 
 import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
@@ -65,9 +66,40 @@ import java.lang.annotation.Target;
  *     return test;
  * }
  * </pre>
+ *
+ * <p> Using `dispatch = Dispatch.INDY` for linking the bridge by invokedynamic,
+ * wrapper receives a constant `MethodHandle` instead of `Method`.
+ * <pre>
+ * public static Object wrapHandle(MethodHandle method, Object[] args, Object target) throws Throwable {
+ *     return method.invoke(target, args);
+ * }
+ * </pre>
+ *
+ * <p> Using `sample = 1.0 / 1000` for calling wrapper by one in a thousand calls, such as timing hot methods.
+ *
+ * <p> Repeating `@Wraps` for chaining wrappers, the first declared is the outermost. Wrappers in chain must be
+ * declared with typed {@link Invocation}, the chain is compiled into one bridge method sharing one invocation,
+ * each wrapper calling the next directly by `proceed()`.
+ * <pre>
+ * &#064;Wraps(clazz = MetricsWrapper.class, method = "wrap")
+ * &#064;Wraps(clazz = ThrottleWrapper.class, method = "wrap(maxConcurrent=8)")
+ * &#064;Wraps(clazz = LRUCacheWrapper.class, method = "wrap(1000)")
+ * public User findUser(long id) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p> Wrapper declared with typed {@link Invocation} for avoiding `Object[]` allocating and boxing.
+ * <pre>
+ * public static void wrapInvocation(Invocation invocation) throws Throwable {
+ *     long ret = invocation.proceedLong();
+ *     invocation.setLongResult(ret + invocation.intArg(0));
+ * }
+ * </pre>
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
+@Repeatable(Wraps.List.class)
 public @interface Wraps {
     /**
      * the class of wrapper method.
@@ -85,4 +117,26 @@ public @interface Wraps {
      * Wrapper method must be not-static and the first argument `Method method` will passing with `null`.
      */
     boolean copyToTarget() default false;
+
+    /**
+     * How the bridge method calling the wrapper method, see {@link Dispatch}.
+     * `Dispatch.INDY` can not be used with `copyToTarget`.
+     */
+    Dispatch dispatch() default Dispatch.REFLECT;
+
+    /**
+     * Fraction of calls passing through wrapper, such as `sample = 1.0 / 1000`, others call wrapped method
+     * directly. Deciding by `ThreadLocalRandom` in bridge method, unsampled calls cost only a random number.
+     * Note that `1 / 1000` is integer division as 0, which is rejected by processor like any sample less than 2^-32.
+     */
+    double sample() default 1.0;
+
+    /**
+     * Container of repeated `@Wraps`, in declared order.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface List {
+        Wraps[] value();
+    }
 }
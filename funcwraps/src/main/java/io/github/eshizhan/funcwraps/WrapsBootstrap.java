@@ -0,0 +1,72 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Bootstrap of invokedynamic bridge method, generated by `Dispatch.INDY`.
+ */
+public final class WrapsBootstrap {
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private WrapsBootstrap() {}
+
+    /**
+     * Link bridge to `wrapper(invoker, args, target[, wrapParams])`, the invoker is a constant
+     * `MethodHandle` of wrapped method with type `(Object target, Object[] args)Object`.
+     *
+     * @param type          (target, params...)return for instance method, (params...)return for static method.
+     * @param wrapped       the wrapped method.
+     * @param wrapper       static wrapper method.
+     * @param wrapParams    wrapper method parameters, passing as `String[]` if wrapper has 4 parameters.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type,
+                                     MethodHandle wrapped, MethodHandle wrapper, Object... wrapParams) {
+        boolean isStatic = caller.revealDirect(wrapped).getReferenceKind() == MethodHandleInfo.REF_invokeStatic;
+        int argsCount = isStatic ? type.parameterCount() : type.parameterCount() - 1;
+
+        MethodHandle invoker = wrapped.asType(wrapped.type().generic()).asSpreader(Object[].class, argsCount);
+        if (isStatic)
+            invoker = MethodHandles.dropArguments(invoker, 0, Object.class);
+        invoker = invoker.asType(INVOKER_TYPE);
+
+        // (Object[] args, Object target)Object
+        MethodHandle target = MethodHandles.insertArguments(wrapper, 0, invoker);
+        if (wrapper.type().parameterCount() == 4) {
+            String[] params = Arrays.copyOf(wrapParams, wrapParams.length, String[].class);
+            target = MethodHandles.insertArguments(target, 2, (Object) params);
+        }
+        target = target.asType(MethodType.methodType(Object.class, Object[].class, Object.class));
+
+        if (isStatic) {
+            target = MethodHandles.insertArguments(target, 1, (Object) null);
+        } else {
+            target = MethodHandles.permuteArguments(target,
+                    MethodType.methodType(Object.class, Object.class, Object[].class), 1, 0);
+        }
+        target = target.asCollector(Object[].class, argsCount);
+        return new ConstantCallSite(target.asType(type));
+    }
+}
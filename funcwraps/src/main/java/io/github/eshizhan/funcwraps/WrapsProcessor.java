@@ -19,20 +19,42 @@ package io.github.eshizhan.funcwraps;
 
 import javassist.*;
 import javassist.bytecode.*;
+import javassist.bytecode.annotation.Annotation;
 import javassist.expr.ExprEditor;
 import javassist.expr.MethodCall;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-class WrapsProcessor {
+/**
+ * Processing classes with annotation `@Wraps`, used by CLI, java agent and build plugins.
+ */
+public class WrapsProcessor {
     private Path classPath;
     private ClassPool classPool;
+    private int workers = 1;
+    private boolean incremental = true;
+    private ClassManifest manifest;
+    private final List<String> extraClassPaths = new ArrayList<>();
+    private Consumer<String> log = System.out::println;
 
     public WrapsProcessor(ClassPool classPool) throws NotFoundException {
         this(classPool, null);
@@ -44,46 +66,283 @@ class WrapsProcessor {
 
     public WrapsProcessor(ClassPool classPool, Path classPath) throws NotFoundException {
         this.classPool = classPool != null ? classPool : ClassPool.getDefault();
-        // add self classpath for load self wrapper method
-        ClassClassPath path = new ClassClassPath(this.getClass());
-        this.classPool.appendClassPath(path);
+        // add self classpath for load self wrapper method, unless resolved by system path or parent pool
+        if (this.classPool.getOrNull(Wraps.class.getName()) == null)
+            this.classPool.appendClassPath(new ClassClassPath(this.getClass()));
 
         this.classPath = classPath;
         if (classPath != null)
             this.classPool.appendClassPath(classPath.toString());
     }
 
-    public void processClassPath()
+    /**
+     * Append class path for resolving classes referenced by processed classes, like dependencies.
+     */
+    public void appendClassPath(String pathname) throws NotFoundException {
+        classPool.appendClassPath(pathname);
+        extraClassPaths.add(pathname);
+    }
+
+    /**
+     * @param log   receives processing messages, default is `System.out`.
+     */
+    public void setLog(Consumer<String> log) {
+        this.log = log;
+    }
+
+    /**
+     * @param workers   count of threads for processing classes, processing sequentially if less than 2.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @param incremental   skipping classes unchanged since last processing by manifest in class path,
+     *                      default is true.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return count of processed methods.
+     */
+    public int processClassPath()
             throws NotFoundException, IOException, ClassNotFoundException, CannotCompileException, BadBytecode {
         if (classPath == null)
             throw new RuntimeException("classPath not set with constructor");
+        manifest = incremental ? ClassManifest.load(classPath) : null;
+        List<String> allClasses = findAllClasses(classPath);
+        int processed = workers > 1 ? processClassesParallel(allClasses) : processClasses(allClasses);
+        if (manifest != null)
+            manifest.save();
+        log.accept("total processed methods: " + processed);
+        return processed;
+    }
+
+    private int processClasses(List<String> classNames)
+            throws NotFoundException, IOException, CannotCompileException, BadBytecode {
         int processed = 0;
+        for (String className : classNames)
+            processed += processClassFile(className, false);
+        return processed;
+    }
 
-        for (String className : findAllClasses()) {
-            CtClass ctClass = classPool.get(className);
-            for (CtMethod methodOrig : findAnnotationMethod(Wraps.class, className)) {
-                AnnotationParser annotationParser = new AnnotationParser(classPool, methodOrig);
-                if (annotationParser.parsed()) {
-                    System.out.println("transform: " + methodOrig);
+    /**
+     * Each worker has own class pool as child of the class pool of this processor for sharing JDK classes,
+     * and own processor, the classes are taken from a shared index, output is same as processing sequentially.
+     */
+    private int processClassesParallel(List<String> classNames)
+            throws NotFoundException, IOException, CannotCompileException, BadBytecode {
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "funcwraps-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger next = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < workers; i++) {
+                WrapsProcessor worker = new WrapsProcessor(new ChildClassPool(classPool), classPath);
+                for (String pathname : extraClassPaths)
+                    worker.appendClassPath(pathname);
+                worker.manifest = manifest;
+                worker.log = log;
+                futures.add(executor.submit(() -> {
+                    int processed = 0;
+                    for (int index = next.getAndIncrement(); index < classNames.size();
+                         index = next.getAndIncrement()) {
+                        // detach for avoiding OOM
+                        processed += worker.processClassFile(classNames.get(index), true);
+                    }
+                    return processed;
+                }));
+            }
+            int processed = 0;
+            for (Future<Integer> future : futures)
+                processed += future.get();
+            return processed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NotFoundException)
+                throw (NotFoundException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof CannotCompileException)
+                throw (CannotCompileException) cause;
+            if (cause instanceof BadBytecode)
+                throw (BadBytecode) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                    CtMethod methodNew;
-                    if (!annotationParser.isCopyToTarget())
-                        methodNew = makeBridgeMethod(ctClass, methodOrig, annotationParser);
-                    else
-                        methodNew = makeBridgeMethodByCopy(ctClass, methodOrig, annotationParser);
+    /**
+     * Process class file in class path, skipping the class if the manifest shows it is unchanged.
+     */
+    private int processClassFile(String className, boolean detach)
+            throws NotFoundException, IOException, CannotCompileException, BadBytecode {
+        CtClass ctClass;
+        if (manifest == null) {
+            if (!WrapsScanner.referencesWraps(getClassFile(className)))
+                return 0;
+            ctClass = classPool.get(className);
+        } else {
+            Path classFile = getClassFile(className);
+            BasicFileAttributes attrs = Files.readAttributes(classFile, BasicFileAttributes.class);
+            ClassManifest.Entry entry = manifest.get(className);
+            if (entry != null && manifest.matches(entry, attrs)) {
+                manifest.put(className, entry);
+                return 0;
+            }
+            byte[] bytecode = Files.readAllBytes(classFile);
+            String hash = ClassManifest.hash(bytecode);
+            if (entry != null && entry.hash.equals(hash)) {
+                manifest.put(className, new ClassManifest.Entry(attrs, hash));
+                return 0;
+            }
+            if (!WrapsScanner.referencesWraps(bytecode)) {
+                manifest.put(className, new ClassManifest.Entry(attrs, hash));
+                return 0;
+            }
+            ctClass = classPool.makeClass(new ByteArrayInputStream(bytecode));
+        }
 
-                    ctClass.addMethod(methodNew);
+        int processed = processClass(ctClass);
+        byte[] bytecode = null;
+        if (ctClass.isModified())
+            bytecode = writeClass(ctClass);
+        if (manifest != null) {
+            Path classFile = getClassFile(className);
+            if (bytecode == null)
+                bytecode = Files.readAllBytes(classFile);
+            manifest.put(className, new ClassManifest.Entry(
+                    Files.readAttributes(classFile, BasicFileAttributes.class),
+                    ClassManifest.hash(bytecode)));
+        }
+        if (detach)
+            ctClass.detach();
+        return processed;
+    }
+
+    private Path getClassFile(String className) {
+        return classPath.resolve(className.replace('.', File.separatorChar) + ".class");
+    }
+
+    /**
+     * Write class file by replacing atomically, other workers never read a partial class file.
+     */
+    private byte[] writeClass(CtClass ctClass) throws IOException, CannotCompileException {
+        byte[] bytecode = ctClass.toBytecode();
+        Path classFile = getClassFile(ctClass.getName());
+        Path tempFile = Files.createTempFile(classFile.getParent(), classFile.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, bytecode);
+            Files.move(tempFile, classFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return bytecode;
+    }
 
-                    processed++;
+    /**
+     * Add bridge methods for all annotated methods of class.
+     *
+     * @return count of processed methods.
+     */
+    public int processClass(CtClass ctClass)
+            throws IOException, NotFoundException, CannotCompileException, BadBytecode {
+        int processed = 0;
+        if (isTransformed(ctClass)) {
+            log.accept("skip the class has been transformed: " + ctClass.getName());
+            return processed;
+        }
+        Set<CtMethod> annotatedMethods = new LinkedHashSet<>(findAnnotationMethod(Wraps.class, ctClass.getName()));
+        annotatedMethods.addAll(findAnnotationMethod(Wraps.List.class, ctClass.getName()));
+        for (CtMethod methodOrig : annotatedMethods) {
+            List<Annotation> annotations = AnnotationParser.getAnnotations(methodOrig);
+            if (annotations.size() > 1) {
+                log.accept("transform chain of " + annotations.size() + " wrappers: " + methodOrig);
+                List<AnnotationParser> chain = new ArrayList<>();
+                for (Annotation annotation : annotations) {
+                    AnnotationParser annotationParser = new AnnotationParser(classPool, annotation);
+                    if (!annotationParser.isTypedInvocation())
+                        throw new RuntimeException("chained wrapper method must be declared as " +
+                                "`static void " + annotationParser.getWrapperMethod().getName() +
+                                "(Invocation)`: " + methodOrig.getLongName());
+                    chain.add(annotationParser);
                 }
+                ctClass.addMethod(makeBridgeMethodByInvocation(ctClass, methodOrig, chain));
+                processed++;
+                continue;
             }
-            if (ctClass.isModified())
-                ctClass.writeFile(classPath.toString());
+            AnnotationParser annotationParser = new AnnotationParser(classPool, annotations.get(0));
+            if (annotationParser.parsed()) {
+                log.accept("transform: " + methodOrig);
+
+                CtMethod methodNew;
+                if (annotationParser.isTypedInvocation())
+                    methodNew = makeBridgeMethodByInvocation(ctClass, methodOrig,
+                            Collections.singletonList(annotationParser));
+                else if (annotationParser.isCopyToTarget())
+                    methodNew = makeBridgeMethodByCopy(ctClass, methodOrig, annotationParser);
+                else if (annotationParser.getDispatch() == Dispatch.INDY)
+                    methodNew = makeBridgeMethodByIndy(ctClass, methodOrig, annotationParser);
+                else
+                    methodNew = makeBridgeMethod(ctClass, methodOrig, annotationParser);
+
+                ctClass.addMethod(methodNew);
+                if (annotationParser.getSample() < 1)
+                    addSampling(methodNew, methodOrig, annotationParser.getSample());
+
+                processed++;
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * @return true if the class has wrapped methods renamed by processor.
+     */
+    public static boolean isTransformed(CtClass ctClass) {
+        for (CtMethod ctMethod : ctClass.getDeclaredMethods()) {
+            if (ctMethod.getName().contains(WrapsProcessorConst.WRAPPED_SUFFIX))
+                return true;
         }
-        System.out.println("total processed methods: " + processed);
+        return false;
     }
 
-    private List<String> findAllClasses() throws IOException {
+    /**
+     * Checking class path without class pool, for skipping the whole class path cheaply.
+     *
+     * @return true if same classes are in class path and unchanged since last processing by manifest.
+     */
+    public static boolean isUpToDate(Path classPath) throws IOException {
+        ClassManifest manifest = ClassManifest.load(classPath);
+        List<String> allClasses = findAllClasses(classPath);
+        if (allClasses.size() != manifest.size())
+            return false;
+        for (String className : allClasses) {
+            Path classFile = classPath.resolve(className.replace('.', File.separatorChar) + ".class");
+            ClassManifest.Entry entry = manifest.get(className);
+            if (entry == null)
+                return false;
+            // processed classes are written just before saving manifest, comparing hash
+            if (!manifest.matches(entry, Files.readAttributes(classFile, BasicFileAttributes.class)) &&
+                    !entry.hash.equals(ClassManifest.hash(Files.readAllBytes(classFile))))
+                return false;
+        }
+        return true;
+    }
+
+    private static List<String> findAllClasses(Path classPath) throws IOException {
         int prefixLength = classPath.toString().length() + 1;
         List<String> allClasses = Files.find(classPath, Integer.MAX_VALUE, (path, attr) ->
                 attr.isRegularFile() && path.toString().endsWith(".class"))
@@ -110,7 +369,7 @@ class WrapsProcessor {
         return ret;
     }
 
-    public CtMethod makeBridgeMethod(CtClass ctClass, CtMethod methodOrig, AnnotationParser annotationParser)
+    CtMethod makeBridgeMethod(CtClass ctClass, CtMethod methodOrig, AnnotationParser annotationParser)
             throws CannotCompileException, NotFoundException {
         CtMethod methodWrapper = annotationParser.getWrapperMethod();
         String methodWrapperFullName = methodWrapper.getDeclaringClass().getName() + "." + methodWrapper.getName();
@@ -162,7 +421,264 @@ class WrapsProcessor {
         return methodNew;
     }
 
-    public CtMethod makeBridgeMethodByCopy(CtClass ctClass, CtMethod methodOrig, AnnotationParser annotationParser)
+    /**
+     * Bridge method passing typed {@link Invocation} to wrappers, each wrapper in chain has own site,
+     * and proceed method of the site calls the next wrapper with the same invocation, the last one calls
+     * wrapped method. Sampling of wrappers in chain is inserted before calling each wrapper.
+     *
+     * @param chain     wrappers from outermost to innermost.
+     */
+    CtMethod makeBridgeMethodByInvocation(CtClass ctClass, CtMethod methodOrig, List<AnnotationParser> chain)
+            throws CannotCompileException, NotFoundException {
+        final String invocationClassName = "io.github.eshizhan.funcwraps.Invocation";
+
+        CtMethod methodNew = CtNewMethod.copy(methodOrig, ctClass, null);
+        SyntheticAttribute syntheticAttribute = new SyntheticAttribute(ctClass.getClassFile2().getConstPool());
+
+        String methodOrigName = methodOrig.getName();
+        String methodOrigRename = methodOrigName + WrapsProcessorConst.WRAPPED_SUFFIX;
+        methodOrig.setName(methodOrigRename);
+
+        MethodInfo methodInfoOrig = methodOrig.getMethodInfo();
+        methodInfoOrig.setAccessFlags(AccessFlag.setPrivate(methodInfoOrig.getAccessFlags()));
+        methodInfoOrig.addAttribute(syntheticAttribute);
+
+        boolean isStatic = Modifier.isStatic(methodOrig.getModifiers());
+        CtClass[] parameterTypes = methodOrig.getParameterTypes();
+        CtClass returnType = methodOrig.getReturnType();
+        int lineNumber = methodInfoOrig.getLineNumber(0);
+        String[] siteFieldNames = new String[chain.size()];
+        String[] proceedMethodNames = new String[chain.size()];
+        for (int i = 0; i < chain.size(); i++) {
+            String layer = chain.size() > 1 ? lineNumber + "$" + i : String.valueOf(lineNumber);
+            siteFieldNames[i] = methodOrigName + WrapsProcessorConst.SITE_SUFFIX + layer;
+            proceedMethodNames[i] = methodOrigName + WrapsProcessorConst.PROCEED_SUFFIX + layer;
+        }
+
+        String paramClasses = Arrays.stream(parameterTypes)
+                                    .map(t -> t.getName() + ".class")
+                                    .collect(Collectors.joining(", "));
+        for (int i = 0; i < chain.size(); i++) {
+            CtField field = CtField.make(makeSiteField(siteFieldNames[i], methodOrigName, paramClasses,
+                    returnType, chain.get(i).getWrapperMethodParameters(), proceedMethodNames[i]), ctClass);
+            field.getFieldInfo().addAttribute(syntheticAttribute);
+            ctClass.addField(field);
+        }
+
+        // private static void proceed(Invocation invocation), calling wrapped method with typed arguments
+        StringBuffer sbCall = new StringBuffer();
+        if (isStatic)
+            sbCall.append(ctClass.getName());
+        else
+            sbCall.append("((").append(ctClass.getName()).append(") invocation.target())");
+        sbCall.append(".").append(methodOrigRename).append("(");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0)
+                sbCall.append(", ");
+            if (parameterTypes[i].isPrimitive())
+                sbCall.append("invocation.").append(parameterTypes[i].getName()).append("Arg(").append(i).append(")");
+            else
+                sbCall.append("(").append(parameterTypes[i].getName()).append(") invocation.arg(").append(i).append(")");
+        }
+        sbCall.append(")");
+        // innermost first, each proceed method calls the next one added
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            StringBuffer sbProceed = new StringBuffer();
+            sbProceed.append("private static void ").append(proceedMethodNames[i]).append("(")
+                     .append(invocationClassName).append(" invocation) {\n");
+            if (i < chain.size() - 1) {
+                // calling the next wrapper on its site, switching back for the wrapper after proceed
+                sbProceed.append("invocation.setSite(").append(siteFieldNames[i + 1]).append(");\n")
+                         .append("try {\n")
+                         .append(callWrapperByInvocation(chain.get(i + 1), proceedMethodNames[i + 1]))
+                         .append("} finally {\ninvocation.setSite(").append(siteFieldNames[i]).append(");\n}\n}");
+            } else if (returnType == CtClass.voidType) {
+                sbProceed.append(sbCall).append(";\n}");
+            } else {
+                sbProceed.append("invocation.").append(invocationSetter(returnType, "Result")).append("(")
+                         .append(sbCall).append(");\n}");
+            }
+//            System.out.println(sbProceed.toString());
+            CtMethod methodProceed = CtNewMethod.make(sbProceed.toString(), ctClass);
+            methodProceed.getMethodInfo().addAttribute(syntheticAttribute);
+            ctClass.addMethod(methodProceed);
+        }
+
+        StringBuffer sbBody = new StringBuffer();
+        sbBody.append("{\n").append(invocationClassName).append(" invocation = ").append(invocationClassName)
+              .append(".enter(").append(siteFieldNames[0]).append(", ").append(isStatic ? "null" : "$0").append(");\n")
+              .append("try {\n");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            sbBody.append("invocation.").append(invocationSetter(parameterTypes[i], "Arg"))
+                  .append("(").append(i).append(", $").append(i + 1).append(");\n");
+        }
+        // sampling of single wrapper is inserted by `addSampling` before entering invocation
+        sbBody.append(chain.size() > 1 ? callWrapperByInvocation(chain.get(0), proceedMethodNames[0]) :
+                wrapperFullName(chain.get(0)) + "(invocation);\n");
+        if (returnType == CtClass.voidType)
+            sbBody.append("return;\n");
+        else if (!returnType.isPrimitive())
+            sbBody.append("return (").append(returnType.getName()).append(") invocation.result();\n");
+        else if (returnType == CtClass.byteType || returnType == CtClass.shortType || returnType == CtClass.charType)
+            sbBody.append("return (").append(returnType.getName()).append(") invocation.intResult();\n");
+        else
+            sbBody.append("return invocation.").append(returnType.getName()).append("Result();\n");
+        sbBody.append("} finally {\ninvocation.exit();\n}\n}");
+//        System.out.println(sbBody.toString());
+        methodNew.setBody(sbBody.toString());
+        return methodNew;
+    }
+
+    private static String makeSiteField(String siteFieldName, String methodOrigName, String paramClasses,
+                                        CtClass returnType, List<String> wrapperMethodParameters,
+                                        String proceedMethodName) {
+        final String siteClassName = "io.github.eshizhan.funcwraps.WrapSite";
+        StringBuffer sbField = new StringBuffer();
+        sbField.append("private static final ").append(siteClassName).append(" ").append(siteFieldName)
+               .append(" = new ").append(siteClassName).append("(java.lang.invoke.MethodHandles.lookup(), \"")
+               .append(methodOrigName).append("\", ");
+        if (!paramClasses.isEmpty())
+            sbField.append("new java.lang.Class[] {").append(paramClasses).append("}, ");
+        else
+            sbField.append("new java.lang.Class[0], ");
+        sbField.append(returnType == CtClass.voidType ? "java.lang.Void.TYPE" : returnType.getName() + ".class");
+        if (!wrapperMethodParameters.isEmpty())
+            sbField.append(", new java.lang.String[] {\"")
+                   .append(String.join("\",\"", wrapperMethodParameters)).append("\"}");
+        else
+            sbField.append(", new java.lang.String[0]");
+        sbField.append(", \"").append(proceedMethodName).append("\");");
+//        System.out.println(sbField.toString());
+        return sbField.toString();
+    }
+
+    /**
+     * Calling wrapper in chain with `invocation`, unsampled calls go to `proceedMethodName` directly.
+     */
+    private static String callWrapperByInvocation(AnnotationParser annotationParser, String proceedMethodName) {
+        String call = wrapperFullName(annotationParser) + "(invocation);\n";
+        if (annotationParser.getSample() >= 1)
+            return call;
+        long threshold = (long) (annotationParser.getSample() * (1L << 32));
+        return "if ((java.util.concurrent.ThreadLocalRandom.current().nextInt() & 0xFFFFFFFFL) >= " + threshold +
+                "L) {\n" + proceedMethodName + "(invocation);\n} else {\n" + call + "}\n";
+    }
+
+    private static String wrapperFullName(AnnotationParser annotationParser) {
+        CtMethod methodWrapper = annotationParser.getWrapperMethod();
+        return methodWrapper.getDeclaringClass().getName() + "." + methodWrapper.getName();
+    }
+
+    /**
+     * Insert sampling at the beginning of bridge method, unsampled calls go to wrapped method directly.
+     * The unsigned 32 bits random number is compared with threshold, no floating point or division.
+     *
+     * @param methodWrapped original method renamed.
+     */
+    void addSampling(CtMethod methodNew, CtMethod methodWrapped, double sample)
+            throws CannotCompileException, NotFoundException {
+        long threshold = (long) (sample * (1L << 32));
+        String call = methodWrapped.getName() + "($$);";
+        StringBuffer sbSampling = new StringBuffer();
+        sbSampling.append("if ((java.util.concurrent.ThreadLocalRandom.current().nextInt() & 0xFFFFFFFFL) >= ")
+                  .append(threshold).append("L) {\n");
+        if (methodWrapped.getReturnType() == CtClass.voidType)
+            sbSampling.append(call).append("\nreturn;\n}");
+        else
+            sbSampling.append("return ").append(call).append("\n}");
+//        System.out.println(sbSampling.toString());
+        methodNew.insertBefore(sbSampling.toString());
+    }
+
+    private static String invocationSetter(CtClass type, String kind) {
+        if (!type.isPrimitive())
+            return "set" + kind;
+        if (type == CtClass.byteType || type == CtClass.shortType || type == CtClass.charType)
+            return "setInt" + kind;
+        String name = type.getName();
+        return "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1) + kind;
+    }
+
+    CtMethod makeBridgeMethodByIndy(CtClass ctClass, CtMethod methodOrig, AnnotationParser annotationParser)
+            throws CannotCompileException, NotFoundException {
+        final String bootstrapClassName = "io.github.eshizhan.funcwraps.WrapsBootstrap";
+        final String bootstrapMethodName = "bootstrap";
+        final String bootstrapMethodDesc = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;" +
+                "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodHandle;" +
+                "[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+
+        ClassFile classFile = ctClass.getClassFile2();
+        if (classFile.getMajorVersion() < ClassFile.JAVA_7)
+            throw new RuntimeException("dispatch INDY requires class file version 51 or above: " + ctClass.getName());
+
+        CtMethod methodWrapper = annotationParser.getWrapperMethod();
+        CtMethod methodNew = CtNewMethod.copy(methodOrig, ctClass, null);
+        ConstPool constPool = classFile.getConstPool();
+        SyntheticAttribute syntheticAttribute = new SyntheticAttribute(constPool);
+
+        String methodOrigName = methodOrig.getName();
+        String methodOrigRename = methodOrigName + WrapsProcessorConst.WRAPPED_SUFFIX;
+        methodOrig.setName(methodOrigRename);
+
+        MethodInfo methodInfoOrig = methodOrig.getMethodInfo();
+        methodInfoOrig.setAccessFlags(AccessFlag.setPrivate(methodInfoOrig.getAccessFlags()));
+        methodInfoOrig.addAttribute(syntheticAttribute);
+
+        boolean isStatic = Modifier.isStatic(methodOrig.getModifiers());
+        int wrappedHandle = constPool.addMethodHandleInfo(
+                isStatic ? ConstPool.REF_invokeStatic : ConstPool.REF_invokeSpecial,
+                addMethodrefInfo(constPool, ctClass, methodOrigRename, methodOrig.getSignature()));
+        int wrapperHandle = constPool.addMethodHandleInfo(ConstPool.REF_invokeStatic,
+                addMethodrefInfo(constPool, methodWrapper.getDeclaringClass(),
+                        methodWrapper.getName(), methodWrapper.getSignature()));
+        int bootstrapHandle = constPool.addMethodHandleInfo(ConstPool.REF_invokeStatic,
+                constPool.addMethodrefInfo(constPool.addClassInfo(bootstrapClassName),
+                        bootstrapMethodName, bootstrapMethodDesc));
+
+        List<String> wrapperMethodParameters = annotationParser.getWrapperMethodParameters();
+        int[] bootstrapArgs = new int[2 + wrapperMethodParameters.size()];
+        bootstrapArgs[0] = wrappedHandle;
+        bootstrapArgs[1] = wrapperHandle;
+        for (int i = 0; i < wrapperMethodParameters.size(); i++)
+            bootstrapArgs[i + 2] = constPool.addStringInfo(wrapperMethodParameters.get(i));
+        int bootstrapIndex = addBootstrapMethod(classFile,
+                new BootstrapMethodsAttribute.BootstrapMethod(bootstrapHandle, bootstrapArgs));
+
+        CtClass[] parameterTypes = methodOrig.getParameterTypes();
+        String callSiteDesc = isStatic ? methodOrig.getSignature() :
+                Descriptor.insertParameter(ctClass, methodOrig.getSignature());
+        Bytecode bytecode = new Bytecode(constPool);
+        if (!isStatic)
+            bytecode.addAload(0);
+        bytecode.addLoadParameters(parameterTypes, isStatic ? 0 : 1);
+        bytecode.addInvokedynamic(bootstrapIndex, methodOrigName, callSiteDesc);
+        bytecode.addReturn(methodOrig.getReturnType());
+        bytecode.setMaxLocals(isStatic, parameterTypes, 0);
+        methodNew.getMethodInfo().setCodeAttribute(bytecode.toCodeAttribute());
+        return methodNew;
+    }
+
+    private static int addMethodrefInfo(ConstPool constPool, CtClass ctClass, String name, String desc) {
+        int classInfo = constPool.addClassInfo(ctClass);
+        if (ctClass.isInterface())
+            return constPool.addInterfaceMethodrefInfo(classInfo, name, desc);
+        else
+            return constPool.addMethodrefInfo(classInfo, name, desc);
+    }
+
+    private static int addBootstrapMethod(ClassFile classFile, BootstrapMethodsAttribute.BootstrapMethod method) {
+        BootstrapMethodsAttribute attribute =
+                (BootstrapMethodsAttribute) classFile.getAttribute(BootstrapMethodsAttribute.tag);
+        BootstrapMethodsAttribute.BootstrapMethod[] methods = attribute != null ?
+                attribute.getMethods() : new BootstrapMethodsAttribute.BootstrapMethod[0];
+        BootstrapMethodsAttribute.BootstrapMethod[] methodsNew = Arrays.copyOf(methods, methods.length + 1);
+        methodsNew[methods.length] = method;
+        // replace the existing attribute, keep index of existing bootstrap methods
+        classFile.addAttribute(new BootstrapMethodsAttribute(classFile.getConstPool(), methodsNew));
+        return methods.length;
+    }
+
+    CtMethod makeBridgeMethodByCopy(CtClass ctClass, CtMethod methodOrig, AnnotationParser annotationParser)
             throws CannotCompileException, NotFoundException, BadBytecode {
         final String markerClassName = "io.github.eshizhan.funcwraps.ProceedMarker";
         final String markerMethodName = "proceed";
@@ -189,7 +705,7 @@ class WrapsProcessor {
             @Override
             public void edit(MethodCall m) throws CannotCompileException {
                 if (m.getClassName().equals(markerClassName) && m.getMethodName().equals(markerMethodName))
-                    m.replace("{ $_ = " + methodOrigRename + "(" + paramsString + "); }");
+                    m.replace("{ $_ = ($w) " + methodOrigRename + "(" + paramsString + "); }");
             }
         });
         String methodWrappedName = methodOrigName + WrapsProcessorConst.WRAPPER_SUFFIX;
@@ -238,7 +754,13 @@ class WrapsProcessor {
             }
 
             for (int i = 0; i < parameterTypes.length; i++) {
-                params.add(String.format("(%s) %s[%s]", parameterTypes[i].getName(), argsParamName, i));
+                if (parameterTypes[i].isPrimitive()) {
+                    CtPrimitiveType primitiveType = (CtPrimitiveType) parameterTypes[i];
+                    params.add(String.format("((%s) %s[%s]).%s()", primitiveType.getWrapperName(),
+                            argsParamName, i, primitiveType.getGetMethodName()));
+                } else {
+                    params.add(String.format("(%s) %s[%s]", parameterTypes[i].getName(), argsParamName, i));
+                }
             }
         }
 //        else if (methodParamsAttr != null) {
@@ -23,4 +23,7 @@ final class WrapsProcessorConst {
     public static final String WRAPPED_SUFFIX = "$funcwraps$wrapped";
     public static final String REFLECT_SUFFIX = "$reflect$";
     public static final String WRAPPER_SUFFIX = "$funcwraps$wrapper";
+    public static final String PROCEED_SUFFIX = "$funcwraps$proceed$";
+    public static final String SITE_SUFFIX = "$funcwraps$site$";
+    public static final String MANIFEST_FILE = ".funcwraps-manifest";
 }
@@ -0,0 +1,128 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fast checking whether a class file references `@Wraps`, by reading constant pool only
+ * without building `CtClass`. Classes not referencing `@Wraps` never have annotated methods.
+ */
+public final class WrapsScanner {
+    private static final byte[] WRAPS_DESC =
+            ("L" + Wraps.class.getName().replace('.', '/')).getBytes(StandardCharsets.UTF_8);
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    private WrapsScanner() {}
+
+    public static boolean referencesWraps(Path classFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(classFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD)
+                return referencesWraps(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            // reading until buffer is full or end of file
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            ((Buffer) buffer).flip();
+            return referencesWraps(buffer);
+        }
+    }
+
+    public static boolean referencesWraps(byte[] bytecode) {
+        return referencesWraps(ByteBuffer.wrap(bytecode));
+    }
+
+    /**
+     * Reading from position of buffer, the position is not changed.
+     *
+     * @return true if constant pool has descriptor of `Wraps` annotation,
+     *         or class file can not be scanned, let processor decide.
+     */
+    public static boolean referencesWraps(ByteBuffer buffer) {
+        int offset = buffer.position();
+        try {
+            if (buffer.getInt(offset) != MAGIC)
+                return true;
+            int count = buffer.getShort(offset + 8) & 0xffff;
+            offset += 10;
+            for (int i = 1; i < count; i++) {
+                int tag = buffer.get(offset) & 0xff;
+                switch (tag) {
+                    case 1: // Utf8
+                        int length = buffer.getShort(offset + 1) & 0xffff;
+                        if (isWrapsDesc(buffer, offset + 3, length))
+                            return true;
+                        offset += 3 + length;
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        offset += 3;
+                        break;
+                    case 15: // MethodHandle
+                        offset += 4;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        offset += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        offset += 9;
+                        i++;
+                        break;
+                    default:
+                        return true;
+                }
+            }
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Matching `Lio/github/eshizhan/funcwraps/Wraps;` and nested types of it.
+     */
+    private static boolean isWrapsDesc(ByteBuffer buffer, int offset, int length) {
+        if (length <= WRAPS_DESC.length)
+            return false;
+        for (int i = 0; i < WRAPS_DESC.length; i++) {
+            if (buffer.get(offset + i) != WRAPS_DESC[i])
+                return false;
+        }
+        byte next = buffer.get(offset + WRAPS_DESC.length);
+        return next == ';' || next == '$';
+    }
+}
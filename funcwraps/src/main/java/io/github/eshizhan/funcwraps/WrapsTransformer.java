@@ -45,23 +45,11 @@ public class WrapsTransformer implements ClassFileTransformer {
         String className = classNameParam.replaceAll("/", ".");
         if (!className.startsWith(packageName))
             return null;
+        if (!WrapsScanner.referencesWraps(classfileBuffer))
+            return null;
         try {
             CtClass ctClass = classPool.getCtClass(className);
-            for (CtMethod methodOrig : wrapsProcessor.findAnnotationMethod(Wraps.class, className)) {
-
-                AnnotationParser annotationParser = new AnnotationParser(classPool, methodOrig);
-                if (annotationParser.parsed()) {
-                    System.out.println("transform: " + methodOrig);
-
-                    CtMethod methodNew;
-                    if (!annotationParser.isCopyToTarget())
-                        methodNew = wrapsProcessor.makeBridgeMethod(ctClass, methodOrig, annotationParser);
-                    else
-                        methodNew = wrapsProcessor.makeBridgeMethodByCopy(ctClass, methodOrig, annotationParser);
-
-                    ctClass.addMethod(methodNew);
-                }
-            }
+            wrapsProcessor.processClass(ctClass);
             if (ctClass.isModified()){
                 byte[] bytecode = ctClass.toBytecode();
                 // clean avoid OOM
@@ -0,0 +1,317 @@
+/*
+ * funcwraps, using annotation for wrapped a method.
+ * Copyright (c) 2021 Shi Zhan. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.eshizhan.funcwraps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal zip archive reader over a buffer, and writer copying entries with raw compressed data,
+ * so unchanged entries are never inflated and deflated again.
+ * Zip64 archives are not supported.
+ */
+class ZipArchive {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Map<String, ZipArchive> nested = new HashMap<>();
+    private final byte[] comment;
+
+    /**
+     * @param buffer    whole archive, mapped file or heap buffer.
+     */
+    ZipArchive(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(this.buffer);
+        int count = this.buffer.getShort(end + 10) & 0xffff;
+        long centralOffset = this.buffer.getInt(end + 16) & 0xffffffffL;
+        this.comment = bytes(this.buffer, end + END_SIZE, this.buffer.getShort(end + 20) & 0xffff);
+        if (count == 0xffff || centralOffset == 0xffffffffL)
+            throw new IOException("zip64 archive is not supported");
+
+        List<Entry> list = new ArrayList<>(count);
+        int offset = (int) centralOffset;
+        for (int i = 0; i < count; i++) {
+            if (this.buffer.getInt(offset) != CENTRAL_HEADER_SIG)
+                throw new IOException("bad central directory header at " + offset);
+            int headerLength = CENTRAL_HEADER_SIZE + (this.buffer.getShort(offset + 28) & 0xffff) +
+                    (this.buffer.getShort(offset + 30) & 0xffff) + (this.buffer.getShort(offset + 32) & 0xffff);
+            Entry entry = new Entry(this.buffer, offset, headerLength);
+            list.add(entry);
+            index.put(entry.name, entry);
+            offset += headerLength;
+        }
+        this.entries = Collections.unmodifiableList(list);
+    }
+
+    private static int findEnd(ByteBuffer buffer) throws IOException {
+        int limit = Math.max(0, buffer.limit() - END_SIZE - 0xffff);
+        for (int offset = buffer.limit() - END_SIZE; offset >= limit; offset--) {
+            if (buffer.getInt(offset) == END_SIG)
+                return offset;
+        }
+        throw new IOException("not a zip archive");
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    Entry getEntry(String name) {
+        return index.get(name);
+    }
+
+    /**
+     * @return compressed data of entry, without local header and data descriptor.
+     */
+    ByteBuffer getRawData(Entry entry) throws IOException {
+        int local = (int) entry.localOffset;
+        if (buffer.getInt(local) != LOCAL_HEADER_SIG)
+            throw new IOException("bad local header of " + entry.name);
+        int dataOffset = local + LOCAL_HEADER_SIZE +
+                (buffer.getShort(local + 26) & 0xffff) + (buffer.getShort(local + 28) & 0xffff);
+        ByteBuffer data = buffer.duplicate();
+        ((Buffer) data).position(dataOffset).limit(dataOffset + (int) entry.compressedSize);
+        return data.slice();
+    }
+
+    /**
+     * @return extra field in local header, may differ from extra field in central directory.
+     */
+    byte[] getLocalExtra(Entry entry) {
+        int local = (int) entry.localOffset;
+        int nameLength = buffer.getShort(local + 26) & 0xffff;
+        return bytes(buffer, local + LOCAL_HEADER_SIZE + nameLength, buffer.getShort(local + 28) & 0xffff);
+    }
+
+    /**
+     * @return uncompressed data of entry.
+     */
+    byte[] getData(Entry entry) throws IOException {
+        ByteBuffer raw = getRawData(entry);
+        if (entry.method == STORED)
+            return bytes(raw, 0, raw.remaining());
+        if (entry.method != DEFLATED)
+            throw new IOException("unsupported compression method " + entry.method + " of " + entry.name);
+        byte[] compressed = bytes(raw, 0, raw.remaining());
+        byte[] data = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += read;
+            }
+            if (n != data.length)
+                throw new IOException("truncated entry " + entry.name);
+        } catch (DataFormatException e) {
+            throw new IOException("bad compressed data of " + entry.name, e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Open nested archive of entry, stored entry is read in place, deflated entry is inflated once.
+     */
+    synchronized ZipArchive getNested(Entry entry) throws IOException {
+        ZipArchive archive = nested.get(entry.name);
+        if (archive == null) {
+            archive = new ZipArchive(entry.method == STORED ? getRawData(entry) : ByteBuffer.wrap(getData(entry)));
+            nested.put(entry.name, archive);
+        }
+        return archive;
+    }
+
+    byte[] getComment() {
+        return comment;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return bytes;
+    }
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localOffset;
+        private final byte[] centralHeader;
+
+        private Entry(ByteBuffer buffer, int offset, int headerLength) throws IOException {
+            this.centralHeader = bytes(buffer, offset, headerLength);
+            this.method = buffer.getShort(offset + 10) & 0xffff;
+            this.crc = buffer.getInt(offset + 16) & 0xffffffffL;
+            this.compressedSize = buffer.getInt(offset + 20) & 0xffffffffL;
+            this.size = buffer.getInt(offset + 24) & 0xffffffffL;
+            this.localOffset = buffer.getInt(offset + 42) & 0xffffffffL;
+            // jar tools always write name by UTF-8
+            this.name = new String(bytes(buffer, offset + CENTRAL_HEADER_SIZE,
+                    buffer.getShort(offset + 28) & 0xffff), StandardCharsets.UTF_8);
+            if (compressedSize == 0xffffffffL || size == 0xffffffffL || localOffset == 0xffffffffL)
+                throw new IOException("zip64 entry is not supported: " + name);
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Writing archive sequentially, sizes are always written in local header without data descriptor.
+     */
+    static final class Writer {
+        private final OutputStream out;
+        private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+        private final byte[] chunk = new byte[64 * 1024];
+        private long offset;
+        private int count;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Copy entry with raw compressed data from source archive.
+         */
+        void copy(ZipArchive source, Entry entry) throws IOException {
+            writeEntry(entry, source.getLocalExtra(entry), entry.method, entry.crc,
+                    source.getRawData(entry), entry.size);
+        }
+
+        /**
+         * Write entry with new data, compressed by same method as source entry.
+         */
+        void write(ZipArchive source, Entry entry, byte[] data) throws IOException {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            byte[] compressed = entry.method == STORED ? data : deflate(data);
+            int method = entry.method == STORED ? STORED : DEFLATED;
+            writeEntry(entry, source.getLocalExtra(entry), method, crc32.getValue(),
+                    ByteBuffer.wrap(compressed), data.length);
+        }
+
+        private void writeEntry(Entry entry, byte[] localExtra, int method, long crc, ByteBuffer compressed,
+                                long size) throws IOException {
+            int compressedSize = compressed.remaining();
+            ByteBuffer header = ByteBuffer.wrap(entry.centralHeader.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            int flags = (header.getShort(8) & 0xffff) & ~FLAG_DATA_DESCRIPTOR;
+            int nameLength = header.getShort(28) & 0xffff;
+            header.putShort(8, (short) flags);
+            header.putShort(10, (short) method);
+            header.putInt(16, (int) crc);
+            header.putInt(20, compressedSize);
+            header.putInt(24, (int) size);
+            header.putInt(42, (int) offset);
+            central.write(header.array());
+
+            ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            local.putInt(LOCAL_HEADER_SIG);
+            local.putShort(header.getShort(6)); // version needed
+            local.putShort((short) flags);
+            local.putShort((short) method);
+            local.putShort(header.getShort(12)); // time
+            local.putShort(header.getShort(14)); // date
+            local.putInt((int) crc);
+            local.putInt(compressedSize);
+            local.putInt((int) size);
+            local.putShort((short) nameLength);
+            local.putShort((short) localExtra.length);
+            out.write(local.array());
+            out.write(entry.centralHeader, CENTRAL_HEADER_SIZE, nameLength);
+            out.write(localExtra);
+            while (compressed.hasRemaining()) {
+                int n = Math.min(chunk.length, compressed.remaining());
+                compressed.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+            offset += LOCAL_HEADER_SIZE + nameLength + localExtra.length + compressedSize;
+            count++;
+            if (offset > 0xffffffffL || count > 0xffff)
+                throw new IOException("zip64 archive is not supported");
+        }
+
+        void finish(byte[] comment) throws IOException {
+            byte[] centralBytes = central.toByteArray();
+            out.write(centralBytes);
+            ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_SIG);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) count);
+            end.putShort((short) count);
+            end.putInt(centralBytes.length);
+            end.putInt((int) offset);
+            end.putShort((short) comment.length);
+            out.write(end.array());
+            out.write(comment);
+            out.flush();
+        }
+
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] chunk = new byte[8192];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(chunk);
+                    out.write(chunk, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -17,13 +17,72 @@
 
 package io.github.eshizhan.test;
 
+import com.sun.net.httpserver.HttpServer;
+import io.github.eshizhan.funcwraps.CacheStats;
 import io.github.eshizhan.funcwraps.LRUCacheWrapper;
+import io.github.eshizhan.funcwraps.Main;
+import io.github.eshizhan.funcwraps.MetricsSnapshot;
+import io.github.eshizhan.funcwraps.MetricsWrapper;
+import io.github.eshizhan.funcwraps.ThrottledException;
+import io.github.eshizhan.funcwraps.WrapsProcessor;
+import io.github.eshizhan.funcwraps.WrapsScanner;
+import javassist.ClassPool;
 import org.junit.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.tools.ToolProvider;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MainTest
 {
@@ -73,6 +132,49 @@ public class MainTest
         assertTrue(exp.equals(ret));
     }
 
+    @Test
+    public void testWrapsWithCopyPrimitive()
+    {
+        System.out.println("starting testWrapsWithCopyPrimitive");
+        TestWraps testWraps = new TestWraps();
+        assertEquals(30L, testWraps.testWithCopyPrimitive(1, 2L));
+    }
+
+    @Test
+    public void testWrapsWithIndy()
+    {
+        System.out.println("starting testWrapsWithIndy");
+        TestWraps testWraps = new TestWraps();
+        String ret = testWraps.testWithIndy("#s1", "#s2");
+        System.out.println(ret);
+        assertTrue("#start#s1#s2#end".equals(ret));
+
+        ret = TestWraps.testWithIndyStatic("#s1", "#s2");
+        System.out.println(ret);
+        assertTrue("#start#s1#s2#end#[param1, param2]".equals(ret));
+
+        int count = WrapMethods.handleCount.get();
+        assertTrue(testWraps.testWithIndyPrimitive(1, 2L) == 3L);
+        assertTrue(WrapMethods.handleCount.get() == count + 1);
+    }
+
+    @Test
+    public void testWrapsWithInvocation()
+    {
+        System.out.println("starting testWrapsWithInvocation");
+        TestWraps testWraps = new TestWraps();
+        long ret = testWraps.testWithInvocation(1, 2L, 3.5, "#s1");
+        assertTrue(ret == 1 + 2 + 3 + 3 + 10);
+
+        String retObject = testWraps.testWithInvocationObject("#s1", '#');
+        System.out.println(retObject);
+        assertTrue("#start#s1#17#end".equals(retObject));
+
+        StringBuilder sb = new StringBuilder();
+        TestWraps.testWithInvocationVoid(sb);
+        assertTrue("#void#end".equals(sb.toString()));
+    }
+
     @Test
     public void testLRUCacheWrapper()
     {
@@ -89,14 +191,934 @@ public class MainTest
         System.out.println(ret3);
         assertFalse(ret1.equals(ret3));
 
+        // #s1 used twice, the following one-hit scanning must not evict it
         String ret_s1 = testWraps.testLRUCacheWrapper("#s1");
         String ret_s2 = testWraps.testLRUCacheWrapper("#s2");
         String ret_s3 = testWraps.testLRUCacheWrapper("#s3");
         String ret_s4 = testWraps.testLRUCacheWrapper("#s4");
-        assertTrue(testWraps.testLRUCacheWrapper("#s2").equals(ret_s2) &&
-                    testWraps.testLRUCacheWrapper("#s3").equals(ret_s3) &&
-                    testWraps.testLRUCacheWrapper("#s4").equals(ret_s4) &&
-                    !testWraps.testLRUCacheWrapper("#s1").equals(ret_s1));
+        assertTrue(testWraps.testLRUCacheWrapper("#s1").equals(ret_s1));
+        // at most 3 results cached
+        assertFalse(testWraps.testLRUCacheWrapper("#s2").equals(ret_s2) &
+                    testWraps.testLRUCacheWrapper("#s3").equals(ret_s3) &
+                    testWraps.testLRUCacheWrapper("#s4").equals(ret_s4));
+    }
+
+    @Test
+    public void testLRUCacheWrapperKey()
+    {
+        System.out.println("starting testLRUCacheWrapperKey");
+        TestWraps testWraps = new TestWraps();
+        Object a = new Object() {
+            @Override
+            public String toString() {
+                return "same";
+            }
+        };
+        Object b = new Object() {
+            @Override
+            public String toString() {
+                return "same";
+            }
+        };
+        assertEquals(3.5d, testWraps.testLRUCacheWrapperKey(1, 2.5d, a), 0d);
+        assertEquals(3.5d, testWraps.testLRUCacheWrapperKey(1, 2.5d, a), 0d);
+        assertEquals(1, testWraps.cacheLoadCount);
+        // not equals arguments with same `toString` are different keys
+        testWraps.testLRUCacheWrapperKey(1, 2.5d, b);
+        assertEquals(2, testWraps.cacheLoadCount);
+        assertEquals(4.5d, testWraps.testLRUCacheWrapperKey(2, 2.5d, a), 0d);
+        assertEquals(3, testWraps.cacheLoadCount);
+        LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperKey");
+    }
+
+    @Test
+    public void testLRUCacheWrapperSingleFlight() throws Exception
+    {
+        System.out.println("starting testLRUCacheWrapperSingleFlight");
+        TestWraps testWraps = new TestWraps();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (String arg : new String[] {"#s1", "#fail"}) {
+                TestWraps.singleFlightLoadCount.set(0);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        return testWraps.testLRUCacheWrapperSingleFlight(arg);
+                    }));
+                }
+                start.countDown();
+                for (Future<String> future : futures) {
+                    try {
+                        assertEquals("#s1#loaded", future.get());
+                    } catch (ExecutionException e) {
+                        // the exception of loading thrown to all waiters
+                        assertEquals("#fail", arg);
+                        assertTrue(e.getCause() instanceof IllegalStateException);
+                    }
+                }
+                assertEquals(1, TestWraps.singleFlightLoadCount.get());
+            }
+        } finally {
+            executor.shutdown();
+            LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperSingleFlight");
+        }
+    }
+
+    @Test
+    public void testLRUCacheWrapperRefresh() throws Exception
+    {
+        System.out.println("starting testLRUCacheWrapperRefresh");
+        TestWraps testWraps = new TestWraps();
+        TestWraps.refreshLoadCount.set(0);
+        try {
+            assertEquals("#s1#1", testWraps.testLRUCacheWrapperRefresh("#s1"));
+            assertEquals("#s1#1", testWraps.testLRUCacheWrapperRefresh("#s1"));
+
+            // stale result returned while reloading in background
+            Thread.sleep(300);
+            assertEquals("#s1#1", testWraps.testLRUCacheWrapperRefresh("#s1"));
+            waitForCount(TestWraps.refreshLoadCount, 2);
+            assertEquals("#s1#2", testWraps.testLRUCacheWrapperRefresh("#s1"));
+
+            LRUCacheWrapper.refresh(TestWraps.class, "testLRUCacheWrapperRefresh");
+            assertEquals("#s1#2", testWraps.testLRUCacheWrapperRefresh("#s1"));
+            waitForCount(TestWraps.refreshLoadCount, 3);
+            assertEquals("#s1#3", testWraps.testLRUCacheWrapperRefresh("#s1"));
+
+            // expired result loaded synchronously
+            Thread.sleep(1000);
+            assertEquals("#s1#4", testWraps.testLRUCacheWrapperRefresh("#s1"));
+        } finally {
+            LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperRefresh");
+        }
+    }
+
+    @Test
+    public void testLRUCacheWrapperWeight()
+    {
+        System.out.println("starting testLRUCacheWrapperWeight");
+        TestWraps testWraps = new TestWraps();
+        for (int i = 0; i < 10; i++)
+            testWraps.testLRUCacheWrapperWeight(i);
+        Map<String, Object> cached = LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperWeight");
+        // about 1KB of each result, at most 3 results in 4KB
+        assertTrue(cached.size() > 0 && cached.size() <= 3);
+
+        for (int i = 0; i < 10; i++)
+            testWraps.testLRUCacheWrapperWeigher(i);
+        cached = LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperWeigher");
+        assertEquals(2, cached.size());
+    }
+
+    @Test
+    public void testLRUCacheWrapperOffHeap()
+    {
+        System.out.println("starting testLRUCacheWrapperOffHeap");
+        TestWraps testWraps = new TestWraps();
+        TestWraps.offHeapLoadCount.set(0);
+        try {
+            for (int i = 0; i < 5; i++)
+                assertEquals("#" + i, testWraps.testLRUCacheWrapperOffHeap(i));
+            assertEquals(5, TestWraps.offHeapLoadCount.get());
+            // results evicted from heap are promoted from off-heap tier without loading
+            for (int i = 0; i < 5; i++)
+                assertEquals("#" + i, testWraps.testLRUCacheWrapperOffHeap(i));
+            assertEquals(5, TestWraps.offHeapLoadCount.get());
+        } finally {
+            LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperOffHeap");
+        }
+        // off-heap tier cleared by remove
+        testWraps.testLRUCacheWrapperOffHeap(0);
+        assertEquals(6, TestWraps.offHeapLoadCount.get());
+        LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperOffHeap");
+    }
+
+    @Test
+    public void testLRUCacheWrapperSnapshot() throws Exception
+    {
+        System.out.println("starting testLRUCacheWrapperSnapshot");
+        Path dir = Files.createTempDirectory("funcwraps-snapshots");
+        try {
+            // results saved at shutdown
+            assertEquals("loaded 1", runSnapshotMain(dir));
+            // results restored after restarting
+            assertEquals("loaded 0", runSnapshotMain(dir));
+            // snapshot writable by others is ignored
+            if (Files.getFileStore(dir).supportsFileAttributeView("posix")) {
+                Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+                assertEquals("loaded 1", runSnapshotMain(dir));
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testLRUCacheWrapperStats() throws Exception
+    {
+        System.out.println("starting testLRUCacheWrapperStats");
+        TestWraps testWraps = new TestWraps();
+        try {
+            for (int n = 0; n < 2; n++) {
+                for (int i = 0; i < 4; i++)
+                    assertEquals("#" + i, testWraps.testLRUCacheWrapperStats(i));
+            }
+            CacheStats stats = LRUCacheWrapper.stats(TestWraps.class, "testLRUCacheWrapperStats");
+            assertEquals(4, stats.hitCount());
+            assertEquals(4, stats.missCount());
+            assertEquals(4, stats.loadSuccessCount());
+            assertEquals(0.5, stats.hitRate(), 0.0);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.github.eshizhan.funcwraps:type=LRUCacheWrapper,name=" +
+                    ObjectName.quote("io.github.eshizhan.test.TestWraps.testLRUCacheWrapperStats(int)"));
+            assertEquals(4L, server.getAttribute(name, "HitCount"));
+            assertEquals(4L, server.getAttribute(name, "Size"));
+            // resizing evicts immediately
+            server.setAttribute(name, new Attribute("Maximum", 2L));
+            assertEquals(2L, server.getAttribute(name, "Size"));
+            assertEquals(2L, server.getAttribute(name, "EvictionCount"));
+            server.invoke(name, "invalidateAll", null, null);
+            assertEquals(0L, server.getAttribute(name, "Size"));
+        } finally {
+            LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperStats");
+        }
+    }
+
+    @Test
+    public void testLRUCacheWrapperAsync() throws Exception
+    {
+        System.out.println("starting testLRUCacheWrapperAsync");
+        TestWraps testWraps = new TestWraps();
+        TestWraps.asyncLoadCount.set(0);
+        try {
+            CompletableFuture<String> first = testWraps.testLRUCacheWrapperAsync(1);
+            CompletableFuture<String> second = testWraps.testLRUCacheWrapperAsync(1);
+            // pending future is shared, not blocking
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+            assertEquals(1, TestWraps.asyncLoadCount.get());
+            TestWraps.asyncPending.remove(1).complete("#1");
+            assertEquals("#1", first.get());
+            assertEquals("#1", second.get());
+            // the completed value is cached
+            CompletableFuture<String> hit = testWraps.testLRUCacheWrapperAsync(1);
+            assertTrue(hit.isDone());
+            assertEquals("#1", hit.get());
+            assertEquals(1, TestWraps.asyncLoadCount.get());
+
+            // failed future is not cached
+            for (int i = 0; i < 2; i++) {
+                try {
+                    testWraps.testLRUCacheWrapperAsync(-1).get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+            assertEquals(3, TestWraps.asyncLoadCount.get());
+        } finally {
+            LRUCacheWrapper.remove(TestWraps.class, "testLRUCacheWrapperAsync");
+        }
+    }
+
+    @Test
+    public void testBatchWrapper() throws Exception
+    {
+        System.out.println("starting testBatchWrapper");
+        TestWraps testWraps = new TestWraps();
+        TestWraps.batchCalls.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                long id = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return testWraps.testBatchWrapper(id);
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < 8; i++)
+                assertEquals("user" + i, futures.get(i).get());
+            // dispatched by full batches of 4 keys, or partial batches after delay
+            assertTrue(TestWraps.batchCalls.size() < 8);
+            int keys = 0;
+            for (Collection<Long> batch : TestWraps.batchCalls) {
+                assertTrue(batch.size() <= 4);
+                keys += batch.size();
+            }
+            assertEquals(8, keys);
+        } finally {
+            executor.shutdown();
+        }
+
+        // absent in result
+        assertEquals(null, testWraps.testBatchWrapper(404));
+
+        TestWraps.batchCalls.clear();
+        List<CompletableFuture<String>> pending = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            pending.add(testWraps.testBatchWrapperAsync(i));
+        for (int i = 0; i < 3; i++)
+            assertEquals("user" + i, pending.get(i).get());
+        assertEquals(1, TestWraps.batchCalls.size());
+        assertEquals(3, TestWraps.batchCalls.get(0).size());
+
+        // full batch of asynchronous method is dispatched by pool, not by the caller
+        CompletableFuture<String> first = testWraps.testBatchWrapperAsyncFull(1);
+        CompletableFuture<String> second = testWraps.testBatchWrapperAsyncFull(2);
+        assertEquals("user1", first.get(1, TimeUnit.SECONDS));
+        assertEquals("user2", second.get(1, TimeUnit.SECONDS));
+        assertTrue(TestWraps.batchThread != Thread.currentThread());
+
+        // targets equal to each other never share batch
+        CompletableFuture<String> a = new TestWraps.EqualTarget("a").testBatchWrapperEqualTarget(1);
+        CompletableFuture<String> b = new TestWraps.EqualTarget("b").testBatchWrapperEqualTarget(1);
+        assertEquals("a1", a.get(1, TimeUnit.SECONDS));
+        assertEquals("b1", b.get(1, TimeUnit.SECONDS));
+
+        // batcher never keeps target alive
+        TestWraps target = new TestWraps();
+        assertEquals("user1", target.testBatchWrapper(1));
+        WeakReference<TestWraps> reference = new WeakReference<>(target);
+        target = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(null, reference.get());
+    }
+
+    @Test
+    public void testThrottleWrapper() throws Exception
+    {
+        System.out.println("starting testThrottleWrapper");
+        TestWraps testWraps = new TestWraps();
+        // burst of 2 calls, then failing fast until next interval of 100ms
+        assertEquals(1, testWraps.testThrottleRate(1));
+        assertEquals(2, testWraps.testThrottleRate(2));
+        try {
+            testWraps.testThrottleRate(3);
+            fail("expected ThrottledException");
+        } catch (ThrottledException e) {
+            // rejected
+        }
+        Thread.sleep(150);
+        assertEquals(4, testWraps.testThrottleRate(4));
+
+        // waiting for interval of 50ms instead of rejecting
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, testWraps.testThrottleRateWait(i));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> running = executor.submit(() -> testWraps.testThrottleConcurrent(entered, release));
+            entered.await();
+            try {
+                testWraps.testThrottleConcurrent(new CountDownLatch(1), new CountDownLatch(0));
+                fail("expected ThrottledException");
+            } catch (ThrottledException e) {
+                // rejected
+            }
+            release.countDown();
+            assertEquals("done", running.get());
+            assertEquals("done", testWraps.testThrottleConcurrent(new CountDownLatch(1), new CountDownLatch(0)));
+        } finally {
+            executor.shutdown();
+        }
+
+        // waiting for concurrency fails fast by interrupting, and rejected calls never use up rate
+        CountDownLatch rateEntered = new CountDownLatch(1);
+        CountDownLatch rateRelease = new CountDownLatch(1);
+        executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> running = executor.submit(
+                    () -> testWraps.testThrottleRateConcurrent(rateEntered, rateRelease));
+            rateEntered.await();
+            for (int i = 0; i < 3; i++) {
+                Thread.currentThread().interrupt();
+                start = System.nanoTime();
+                try {
+                    testWraps.testThrottleRateConcurrent(new CountDownLatch(1), new CountDownLatch(0));
+                    fail("expected ThrottledException");
+                } catch (ThrottledException e) {
+                    // rejected
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+                assertTrue(Thread.interrupted());
+            }
+            rateRelease.countDown();
+            assertEquals("done", running.get());
+            start = System.nanoTime();
+            assertEquals("done", testWraps.testThrottleRateConcurrent(new CountDownLatch(1), new CountDownLatch(0)));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            executor.shutdown();
+        }
+
+        // slot is held until completion, rejected call returns failed future
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        assertTrue(testWraps.testThrottleAsync(pending) == pending);
+        try {
+            testWraps.testThrottleAsync(CompletableFuture.completedFuture("x")).get();
+            fail("expected ThrottledException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ThrottledException);
+        }
+        pending.complete("done");
+        assertEquals("x", testWraps.testThrottleAsync(CompletableFuture.completedFuture("x")).get());
+    }
+
+    @Test
+    public void testHedgeWrapper() throws Exception
+    {
+        System.out.println("starting testHedgeWrapper");
+        TestWraps testWraps = new TestWraps();
+        // the first attempt is slow, the hedge wins and interrupts the calling thread
+        TestWraps.hedgeCalls.set(0);
+        TestWraps.hedgeInterrupts.set(0);
+        long start = System.nanoTime();
+        assertEquals(1, testWraps.testHedge(1));
+        assertSame(Thread.currentThread(), TestWraps.hedgeThread);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, TestWraps.hedgeCalls.get());
+        for (int i = 0; i < 100 && TestWraps.hedgeInterrupts.get() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, TestWraps.hedgeInterrupts.get());
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(2, testWraps.testHedge(2));
+        assertEquals(3, TestWraps.hedgeCalls.get());
+
+        // 10 hedges of burst, 1% earned by 12 calls is not enough for another,
+        // the losers are not interrupted
+        TestWraps.hedgeCalls.set(0);
+        TestWraps.hedgeInterrupts.set(0);
+        for (int i = 0; i < 12; i++)
+            assertEquals(i, testWraps.testHedgeBudget(i));
+        assertEquals(12 + 10, TestWraps.hedgeCalls.get());
+        Thread.sleep(200);
+        assertEquals(0, TestWraps.hedgeInterrupts.get());
+
+        // without interrupt, the slow first attempt returns in about the delay by the hedge
+        TestWraps.hedgeCalls.set(0);
+        start = System.nanoTime();
+        assertEquals(3, testWraps.testHedgeNoInterrupt(3));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, TestWraps.hedgeCalls.get());
+        assertEquals(0, TestWraps.hedgeInterrupts.get());
+
+        // delay is p90 of 100 fast calls
+        TestWraps.hedgeCalls.set(0);
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, testWraps.testHedgePercentile(i, false));
+        start = System.nanoTime();
+        assertEquals(-1, testWraps.testHedgePercentile(-1, true));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, TestWraps.hedgeCalls.get());
+
+        TestWraps.hedgeCalls.set(0);
+        List<CompletableFuture<String>> returned = new CopyOnWriteArrayList<>();
+        assertEquals("x", testWraps.testHedgeAsync(returned).get(2, TimeUnit.SECONDS));
+        assertEquals(2, returned.size());
+        assertTrue(returned.get(0).isCancelled());
+    }
+
+    @Test
+    public void testWrapsChain()
+    {
+        System.out.println("starting testWrapsChain");
+        TestWraps testWraps = new TestWraps();
+        TestWraps.chainCalls.set(0);
+        assertEquals(113L, testWraps.testWrapsChain(1, 2L));
+        assertEquals(113L, testWraps.testWrapsChain(1, 2L));
+        assertEquals(1, TestWraps.chainCalls.get());
+        assertEquals(226L, testWraps.testWrapsChain(2, 4L));
+        assertEquals(2, TestWraps.chainCalls.get());
+
+        // outermost first, unsampled `b` skipped, site switched back after proceed
+        StringBuilder sb = new StringBuilder();
+        TestWraps.testWrapsChainOrder(sb);
+        assertEquals(">a>c#inside<c<a", sb.toString());
+    }
+
+    @Test
+    public void testWrapsWithSample()
+    {
+        System.out.println("starting testWrapsWithSample");
+        TestWraps testWraps = new TestWraps();
+        int sampled = 0;
+        int sampledVoid = 0;
+        for (int i = 0; i < 10000; i++) {
+            long ret = testWraps.testWrapsWithSample(1, 2L);
+            assertTrue(ret == 3L || ret == 13L);
+            if (ret == 13L)
+                sampled++;
+            StringBuilder sb = new StringBuilder();
+            testWraps.testWrapsWithSampleVoid(sb);
+            if (sb.toString().equals("#inside#end"))
+                sampledVoid++;
+            else
+                assertEquals("#inside", sb.toString());
+        }
+        assertTrue("sampled " + sampled, sampled > 4000 && sampled < 6000);
+        assertTrue("sampled " + sampledVoid, sampledVoid > 4000 && sampledVoid < 6000);
+
+        int handleCount = WrapMethods.handleCount.get();
+        for (int i = 0; i < 100; i++)
+            assertEquals(3L, testWraps.testWrapsWithSampleNever(1, 2L));
+        assertEquals(handleCount, WrapMethods.handleCount.get());
+    }
+
+    @Test
+    public void testWrapsWithSampleZero() throws Exception
+    {
+        System.out.println("starting testWrapsWithSampleZero");
+        Path dir = Files.createTempDirectory("funcwraps-sample");
+        try {
+            Path source = dir.resolve("src/demo/Demo.java");
+            Files.createDirectories(source.getParent());
+            Files.write(source, Arrays.asList(
+                    "package demo;",
+                    "import io.github.eshizhan.funcwraps.Wraps;",
+                    "import io.github.eshizhan.test.WrapMethods;",
+                    "public class Demo {",
+                    "    @Wraps(clazz = WrapMethods.class, method = \"wrapInvocation(10)\", sample = 1 / 1000)",
+                    "    public long add(int x, long y) {",
+                    "        return x + y;",
+                    "    }",
+                    "}"));
+            Path classes = Files.createDirectories(dir.resolve("classes"));
+            assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-proc:none",
+                    "-classpath", System.getProperty("java.class.path"), "-d", classes.toString(), source.toString()));
+            try {
+                processClassPath(classes, 1, false);
+                fail("expected RuntimeException");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("'sample' must be in (0, 1]"));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testMetricsWrapper() throws Exception
+    {
+        System.out.println("starting testMetricsWrapper");
+        TestWraps testWraps = new TestWraps();
+        for (int i = 0; i < 100; i++)
+            assertEquals(i * 2, testWraps.testMetricsWrapper(i));
+        for (int i = 0; i < 3; i++) {
+            try {
+                testWraps.testMetricsWrapper(-1);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // counted by exception class
+            }
+        }
+        MetricsSnapshot snapshot = MetricsWrapper.snapshot(TestWraps.class, "testMetricsWrapper");
+        assertEquals(103, snapshot.count());
+        assertEquals(Long.valueOf(3), snapshot.errors().get(IllegalArgumentException.class.getName()));
+        assertTrue(snapshot.percentile(0.5) <= snapshot.percentile(0.99));
+        assertTrue(snapshot.percentile(0.99) <= snapshot.max());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("io.github.eshizhan.funcwraps:type=MetricsWrapper,name=" +
+                ObjectName.quote("io.github.eshizhan.test.TestWraps.testMetricsWrapper(int)"));
+        assertEquals(103L, server.getAttribute(name, "Count"));
+        assertEquals(3L, server.getAttribute(name, "ErrorCount"));
+
+        HttpServer httpServer = MetricsWrapper.startHttpServer(0);
+        try {
+            URL url = new URL("http://localhost:" + httpServer.getAddress().getPort() + "/metrics");
+            String body;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()))) {
+                body = reader.lines().collect(Collectors.joining("\n"));
+            }
+            String method = "method=\"io.github.eshizhan.test.TestWraps.testMetricsWrapper(int)\"";
+            assertTrue(body.contains("funcwraps_method_duration_seconds_count{" + method + "} 103"));
+            assertTrue(body.contains("funcwraps_method_errors_total{" + method +
+                    ",exception=\"java.lang.IllegalArgumentException\"} 3"));
+        } finally {
+            httpServer.stop(0);
+        }
+    }
+
+    @Test
+    public void testMetricsWrapperAsync() throws Exception
+    {
+        System.out.println("starting testMetricsWrapperAsync");
+        TestWraps testWraps = new TestWraps();
+        assertEquals("done", testWraps.testMetricsWrapperAsync(50).toCompletableFuture().get());
+        // latency recorded until completion
+        MetricsSnapshot snapshot = null;
+        for (int i = 0; i < 100 && (snapshot == null || snapshot.count() == 0); i++) {
+            Thread.sleep(10);
+            snapshot = MetricsWrapper.snapshot(TestWraps.class, "testMetricsWrapperAsync");
+        }
+        assertEquals(1, snapshot.count());
+        assertTrue(snapshot.max() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testJfrWrapper() throws Exception
+    {
+        System.out.println("starting testJfrWrapper");
+        TestWraps testWraps = new TestWraps();
+        // no recording, event is not committed
+        assertEquals("a1", testWraps.testJfrWrapper(1, "a"));
+
+        Path file = Files.createTempFile("funcwraps", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("io.github.eshizhan.funcwraps.WrappedMethod");
+                recording.start();
+                assertEquals("b2", testWraps.testJfrWrapper(2, "b"));
+                try {
+                    testWraps.testJfrWrapper(-1, "c");
+                    fail();
+                } catch (IllegalStateException e) {
+                    // recorded with exception
+                }
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals("io.github.eshizhan.funcwraps.WrappedMethod"))
+                    events.add(event);
+            }
+            assertEquals(2, events.size());
+            for (RecordedEvent event : events)
+                assertEquals("io.github.eshizhan.test.TestWraps.testJfrWrapper(int,java.lang.String)",
+                        event.getString("method"));
+            assertEquals("[2, b]", events.get(0).getString("arguments"));
+            assertEquals(null, events.get(0).getString("exception"));
+            assertEquals("[-1, c]", events.get(1).getString("arguments"));
+            assertEquals("java.lang.IllegalStateException", events.get(1).getString("exception"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String runSnapshotMain(Path dir) throws Exception {
+        Process process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dfuncwraps.cache.snapshotDir=" + dir,
+                "-cp", System.getProperty("java.class.path"),
+                SnapshotMain.class.getName())
+                .redirectErrorStream(true)
+                .start();
+        String output;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            output = reader.lines().reduce("", (a, b) -> b);
+        }
+        assertEquals(0, process.waitFor());
+        return output;
+    }
+
+    /**
+     * Calling cached method in a new process.
+     */
+    public static class SnapshotMain {
+        public static void main(String[] args) throws Exception {
+            TestWraps testWraps = new TestWraps();
+            // creating cache, snapshot is indexed in background
+            testWraps.testLRUCacheWrapperSnapshot(0);
+            Thread.sleep(500);
+            int count = TestWraps.snapshotLoadCount.get();
+            assertEquals("#1", testWraps.testLRUCacheWrapperSnapshot(1));
+            System.out.println("loaded " + (TestWraps.snapshotLoadCount.get() - count));
+        }
+    }
+
+    private static void waitForCount(AtomicInteger count, int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && count.get() < expected; i++)
+            Thread.sleep(10);
+        assertEquals(expected, count.get());
+        // result updated after loaded
+        Thread.sleep(20);
+    }
+
+    @Test
+    public void testAnnotationProcessor() throws Exception
+    {
+        System.out.println("starting testAnnotationProcessor");
+        Path dir = Files.createTempDirectory("funcwraps-processor");
+        Path source = dir.resolve("src/demo/Demo.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, Arrays.asList(
+                "package demo;",
+                "import io.github.eshizhan.funcwraps.Invocation;",
+                "import io.github.eshizhan.funcwraps.LRUCacheWrapper;",
+                "import io.github.eshizhan.funcwraps.Wraps;",
+                "public class Demo {",
+                "    public static int calls;",
+                "    @Wraps(clazz = Demo.class, method = \"twice\")",
+                "    @Wraps(clazz = LRUCacheWrapper.class, method = \"wrap(10)\")",
+                "    public int add(int x, int y) {",
+                "        calls++;",
+                "        return x + y;",
+                "    }",
+                "    public static void twice(Invocation invocation) throws Throwable {",
+                "        invocation.setIntResult(invocation.proceedInt() * 2);",
+                "    }",
+                "}"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        String classPath = System.getProperty("java.class.path");
+        // processor is discovered from class path, classes are rewritten by javac
+        int exitCode = ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-classpath", classPath, "-processorpath", classPath,
+                "-d", classes.toString(), source.toString());
+        assertEquals(0, exitCode);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()},
+                MainTest.class.getClassLoader())) {
+            Class<?> demo = loader.loadClass("demo.Demo");
+            Object instance = demo.getConstructor().newInstance();
+            Method add = demo.getMethod("add", int.class, int.class);
+            assertEquals(6, add.invoke(instance, 1, 2));
+            assertEquals(6, add.invoke(instance, 1, 2));
+            assertEquals(1, demo.getField("calls").getInt(null));
+            assertTrue(Arrays.stream(demo.getDeclaredMethods())
+                    .anyMatch(method -> method.getName().equals("add$funcwraps$wrapped")));
+        }
+    }
+
+    @Test
+    public void testProcessClassPathParallel() throws Exception
+    {
+        System.out.println("starting testProcessClassPathParallel");
+        Path dir = Files.createTempDirectory("funcwraps-parallel");
+        try {
+            Path sequential = compileFixtures(dir.resolve("sequential"));
+            Path parallel = compileFixtures(dir.resolve("parallel"));
+            assertEquals(processClassPath(sequential, 1, false), processClassPath(parallel, 4, false));
+            assertClassesEqual(readClasses(sequential), readClasses(parallel));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testProcessClassPathIncremental() throws Exception
+    {
+        System.out.println("starting testProcessClassPathIncremental");
+        Path dir = Files.createTempDirectory("funcwraps-incremental");
+        try {
+            Path classes = compileFixtures(dir.resolve("a"));
+            assertTrue(processClassPath(classes, 1, true) > 0);
+            Map<String, byte[]> processed = readClasses(classes);
+
+            // unchanged classes are skipped by manifest, transformed classes are skipped without manifest
+            assertEquals(0, processClassPath(classes, 1, true));
+            assertEquals(0, processClassPath(classes, 1, false));
+            assertClassesEqual(processed, readClasses(classes));
+
+            // class file replaced by recompiling is processed again
+            Path testWraps = Paths.get(TestWraps.class.getName().replace("io.github.eshizhan.test", "fixture")
+                    .replace('.', '/') + ".class");
+            Path recompiled = compileFixtures(dir.resolve("b"));
+            Files.copy(recompiled.resolve(testWraps), classes.resolve(testWraps),
+                    StandardCopyOption.REPLACE_EXISTING);
+            assertTrue(processClassPath(classes, 1, true) > 0);
+            assertClassesEqual(processed, readClasses(classes));
+
+            // same size and last modified time in the same tick of timestamp, the hash is compared
+            Path classFile = classes.resolve(testWraps);
+            FileTime lastModified = Files.getLastModifiedTime(classFile);
+            byte[] bytecode = Files.readAllBytes(classFile);
+            byte[] constant = "inside wrapped method".getBytes(StandardCharsets.UTF_8);
+            int index = indexOf(bytecode, constant);
+            assertTrue(index > 0);
+            bytecode[index] = 'I';
+            Files.write(classFile, bytecode);
+            Files.setLastModifiedTime(classFile, lastModified);
+            processClassPath(classes, 1, true);
+            String hash = String.format("%040x",
+                    new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(bytecode)));
+            assertTrue(Files.readAllLines(classes.resolve(".funcwraps-manifest")).stream()
+                    .anyMatch(line -> line.startsWith("fixture.TestWraps ") && line.endsWith(hash)));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testProcessJar() throws Throwable
+    {
+        System.out.println("starting testProcessJar");
+        Path dir = Files.createTempDirectory("funcwraps-jar");
+        try {
+            Path expected = compileFixtures(dir.resolve("expected"));
+            assertTrue(processClassPath(expected, 1, false) > 0);
+            Map<String, byte[]> classes = readClasses(compileFixtures(dir.resolve("input")));
+
+            // plain signed jar, classes are same as processed in directory, signature files are removed
+            Map<String, byte[]> entries = new TreeMap<>(classes);
+            entries.put("META-INF/TEST.SF", new byte[] {1});
+            entries.put("META-INF/TEST.RSA", new byte[] {2});
+            Path jar = Files.write(dir.resolve("app.jar"), writeJar(entries, false));
+            Path output = dir.resolve("app-transformed.jar");
+            Main.main(new String[] {jar.toString(), "--output=" + output});
+            Map<String, byte[]> transformed = readJar(Files.readAllBytes(output));
+            assertFalse(transformed.containsKey("META-INF/TEST.SF"));
+            assertFalse(transformed.containsKey("META-INF/TEST.RSA"));
+            assertClassesEqual(readClasses(expected), transformed);
+
+            // nested jar stored in spring boot layout
+            Map<String, byte[]> boot = new TreeMap<>();
+            boot.put("BOOT-INF/lib/fixture.jar", writeJar(classes, false));
+            Path bootJar = Files.write(dir.resolve("boot.jar"), writeJar(boot, true));
+            Main.main(new String[] {bootJar.toString()});
+            byte[] nested = readJar(Files.readAllBytes(bootJar)).get("BOOT-INF/lib/fixture.jar");
+            assertClassesEqual(readClasses(expected), readJar(nested));
+
+            try {
+                Main.main(new String[] {jar.toString(), "--workers=4"});
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("not supported for jar"));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static byte[] writeJar(Map<String, byte[]> entries, boolean stored) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return bytes of entries keyed by name.
+     */
+    private static Map<String, byte[]> readJar(byte[] jar) throws Exception {
+        Map<String, byte[]> entries = new TreeMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(jar))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n; (n = zip.read(buffer)) > 0; )
+                    out.write(buffer, 0, n);
+                entries.put(entry.getName(), out.toByteArray());
+            }
+        }
+        return entries;
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+        for (int i = 0; i + target.length <= array.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(array, i, i + target.length), target))
+                return i;
+        }
+        return -1;
+    }
+
+    private static void assertClassesEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet())
+            assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+    }
+
+    private static int processClassPath(Path classes, int workers, boolean incremental) throws Exception {
+        WrapsProcessor wrapsProcessor = new WrapsProcessor(new ClassPool(true), classes);
+        wrapsProcessor.setWorkers(workers);
+        wrapsProcessor.setIncremental(incremental);
+        wrapsProcessor.setLog(message -> { });
+        return wrapsProcessor.processClassPath();
+    }
+
+    /**
+     * Compiling sources of {@link TestWraps} and {@link WrapMethods} without processing, renamed to package
+     * `fixture` for avoiding resolving the processed classes of tests.
+     *
+     * @return directory of classes.
+     */
+    private static Path compileFixtures(Path dir) throws Exception {
+        Path sources = Files.createDirectories(dir.resolve("src/fixture"));
+        // copyToTarget needs local variable table as compiled by maven
+        List<String> args = new ArrayList<>(Arrays.asList("-proc:none", "-nowarn", "-g",
+                "-classpath", System.getProperty("java.class.path"), "-d", dir.resolve("classes").toString()));
+        for (Class<?> clazz : new Class<?>[] {TestWraps.class, WrapMethods.class}) {
+            Path source = Paths.get("src/test/java", clazz.getName().replace('.', '/') + ".java");
+            String content = new String(Files.readAllBytes(source), StandardCharsets.UTF_8)
+                    .replace(clazz.getPackage().getName(), "fixture");
+            Path target = sources.resolve(clazz.getSimpleName() + ".java");
+            Files.write(target, content.getBytes(StandardCharsets.UTF_8));
+            args.add(target.toString());
+        }
+        Files.createDirectories(dir.resolve("classes"));
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(new String[0])));
+        return dir.resolve("classes");
+    }
+
+    /**
+     * @return bytes of class files keyed by relative path.
+     */
+    private static Map<String, byte[]> readClasses(Path dir) throws Exception {
+        Map<String, byte[]> classes = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(".class"))
+                    classes.put(dir.relativize(file).toString(), Files.readAllBytes(file));
+            }
+        }
+        return classes;
+    }
+
+    private static void deleteRecursively(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : paths)
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testWrapsScanner() throws Exception
+    {
+        System.out.println("starting testWrapsScanner");
+        assertTrue(WrapsScanner.referencesWraps(readClassFile(TestWraps.class)));
+        assertFalse(WrapsScanner.referencesWraps(readClassFile(WrapMethods.class)));
+        assertFalse(WrapsScanner.referencesWraps(readClassFile(MainTest.class)));
+    }
+
+    private static byte[] readClassFile(Class<?> clazz) throws Exception {
+        try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; )
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
     }
 
     /**
@@ -107,6 +1129,24 @@ public class MainTest
         new MainTest().testWrapsWithParams();
         new MainTest().testWrapsWithCopy();
         new MainTest().testWrapsWithCopyAndParams();
+        new MainTest().testWrapsWithCopyPrimitive();
+        new MainTest().testWrapsWithIndy();
+        new MainTest().testWrapsWithInvocation();
+        new MainTest().testWrapsChain();
         new MainTest().testLRUCacheWrapper();
+        new MainTest().testLRUCacheWrapperKey();
+        new MainTest().testLRUCacheWrapperSingleFlight();
+        new MainTest().testLRUCacheWrapperRefresh();
+        new MainTest().testLRUCacheWrapperWeight();
+        new MainTest().testLRUCacheWrapperOffHeap();
+        new MainTest().testLRUCacheWrapperStats();
+        new MainTest().testLRUCacheWrapperAsync();
+        new MainTest().testBatchWrapper();
+        new MainTest().testThrottleWrapper();
+        new MainTest().testHedgeWrapper();
+        new MainTest().testWrapsWithSample();
+        new MainTest().testMetricsWrapper();
+        new MainTest().testMetricsWrapperAsync();
+        new MainTest().testJfrWrapper();
     }
 }
@@ -17,11 +17,31 @@
 
 package io.github.eshizhan.test;
 
+import io.github.eshizhan.funcwraps.BatchWrapper;
+import io.github.eshizhan.funcwraps.Dispatch;
+import io.github.eshizhan.funcwraps.HedgeWrapper;
+import io.github.eshizhan.funcwraps.Invocation;
 import io.github.eshizhan.funcwraps.LRUCacheWrapper;
+import io.github.eshizhan.funcwraps.MetricsWrapper;
+import io.github.eshizhan.funcwraps.ThrottleWrapper;
 import io.github.eshizhan.funcwraps.Wraps;
+import io.github.eshizhan.funcwraps.jfr.JfrWrapper;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestWraps {
     /**
@@ -69,7 +89,67 @@ public class TestWraps {
     }
 
     /**
-     * @see LRUCacheWrapper#wrap(Method, Object[], Object, String[])
+     * @see WrapMethods#wrapCopyPrimitive(Method, Object[], Object)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapCopyPrimitive", copyToTarget = true)
+    public long testWithCopyPrimitive(int x, long y) {
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapHandle(MethodHandle, Object[], Object)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapHandle", dispatch = Dispatch.INDY)
+    public String testWithIndy(String x, String y) {
+        System.out.println("inside wrapped method");
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapHandleWithParams(MethodHandle, Object[], Object, String[])
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapHandleWithParams(param1, param2)", dispatch = Dispatch.INDY)
+    public static String testWithIndyStatic(String x, String y) {
+        System.out.println("inside wrapped method");
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapHandleCount(MethodHandle, Object[], Object)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapHandleCount", dispatch = Dispatch.INDY)
+    public long testWithIndyPrimitive(int x, long y) {
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapInvocation(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocation(10)")
+    public long testWithInvocation(int x, long y, double z, String s) {
+        return x + y + (long) z + s.length();
+    }
+
+    /**
+     * @see WrapMethods#wrapInvocationObject(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocationObject")
+    public String testWithInvocationObject(String x, char y) {
+        System.out.println("inside wrapped method");
+        // nested wrapped call reuses another invocation of the same thread
+        return x + y + testWithInvocation(1, 2L, 3.5, "#");
+    }
+
+    /**
+     * @see WrapMethods#wrapInvocationObject(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocationObject")
+    public static void testWithInvocationVoid(StringBuilder sb) {
+        sb.append("#void");
+    }
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
      */
     @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(3)")
     public String testLRUCacheWrapper(String s) {
@@ -82,4 +162,404 @@ public class TestWraps {
         }
         return time;
     }
+
+    public int cacheLoadCount;
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(16)")
+    public double testLRUCacheWrapperKey(int x, double y, Object z) {
+        cacheLoadCount++;
+        return x + y;
+    }
+
+    public static final AtomicInteger singleFlightLoadCount = new AtomicInteger();
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(16)")
+    public String testLRUCacheWrapperSingleFlight(String s) throws InterruptedException {
+        singleFlightLoadCount.incrementAndGet();
+        Thread.sleep(100);
+        if (s.equals("#fail"))
+            throw new IllegalStateException(s);
+        return s + "#loaded";
+    }
+
+    public static final AtomicInteger refreshLoadCount = new AtomicInteger();
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(16, ttl=800ms, refresh=200ms)")
+    public String testLRUCacheWrapperRefresh(String s) {
+        return s + "#" + refreshLoadCount.incrementAndGet();
+    }
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(1000, weight=4kb)")
+    public byte[] testLRUCacheWrapperWeight(int key) {
+        return new byte[1024];
+    }
+
+    /**
+     * @see WrapMethods.LengthWeigher
+     */
+    @Wraps(clazz = LRUCacheWrapper.class,
+           method = "wrap(1000, weight=10b, weigher=io.github.eshizhan.test.WrapMethods$LengthWeigher)")
+    public String testLRUCacheWrapperWeigher(int key) {
+        return String.format("%04d", key);
+    }
+
+    public static final AtomicInteger offHeapLoadCount = new AtomicInteger();
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(2, offheap=1mb)")
+    public String testLRUCacheWrapperOffHeap(int key) {
+        offHeapLoadCount.incrementAndGet();
+        return "#" + key;
+    }
+
+    public static final AtomicInteger snapshotLoadCount = new AtomicInteger();
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(16, snapshot=1h)")
+    public String testLRUCacheWrapperSnapshot(int key) {
+        snapshotLoadCount.incrementAndGet();
+        return "#" + key;
+    }
+
+    /**
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(4)")
+    public String testLRUCacheWrapperStats(int key) {
+        return "#" + key;
+    }
+
+    /**
+     * @see MetricsWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = MetricsWrapper.class, method = "wrap")
+    public int testMetricsWrapper(int x) {
+        if (x < 0)
+            throw new IllegalArgumentException("negative: " + x);
+        return x * 2;
+    }
+
+    /**
+     * @see WrapMethods#wrapInvocation(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocation(10)", sample = 0.5)
+    public long testWrapsWithSample(int x, long y) {
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapInvocationObject(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocationObject", sample = 0.5)
+    public void testWrapsWithSampleVoid(StringBuilder sb) {
+        sb.append("#inside");
+    }
+
+    /**
+     * @see WrapMethods#wrapHandleCount(MethodHandle, Object[], Object)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapHandleCount", dispatch = Dispatch.INDY, sample = 0x1p-32)
+    public long testWrapsWithSampleNever(int x, long y) {
+        return x + y;
+    }
+
+    /**
+     * @see JfrWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = JfrWrapper.class, method = "wrap(args)")
+    public String testJfrWrapper(int x, String s) {
+        if (x < 0)
+            throw new IllegalStateException("negative: " + x);
+        return s + x;
+    }
+
+    public static final AtomicInteger asyncLoadCount = new AtomicInteger();
+    public static final Map<Integer, CompletableFuture<String>> asyncPending = new ConcurrentHashMap<>();
+
+    /**
+     * Completed by test, failed if key is negative.
+     *
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(16)")
+    public CompletableFuture<String> testLRUCacheWrapperAsync(int key) {
+        asyncLoadCount.incrementAndGet();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (key < 0)
+            future.completeExceptionally(new IllegalStateException("negative: " + key));
+        else
+            asyncPending.put(key, future);
+        return future;
+    }
+
+    /**
+     * @see MetricsWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = MetricsWrapper.class, method = "wrap")
+    public CompletionStage<String> testMetricsWrapperAsync(long delayMillis) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            future.complete("done");
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    public static final List<Collection<Long>> batchCalls = new CopyOnWriteArrayList<>();
+
+    /**
+     * Not called, dispatched to {@link #loadUsers(List)} in batch.
+     *
+     * @see BatchWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = BatchWrapper.class, method = "wrap(loadUsers, maxSize=4, maxDelay=50ms)")
+    public String testBatchWrapper(long id) {
+        throw new UnsupportedOperationException();
+    }
+
+    private Map<Long, String> loadUsers(List<Long> ids) {
+        batchCalls.add(ids);
+        Map<Long, String> users = new HashMap<>();
+        for (Long id : ids) {
+            if (id != 404)
+                users.put(id, "user" + id);
+        }
+        return users;
+    }
+
+    /**
+     * @see BatchWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = BatchWrapper.class, method = "wrap(loadUsersAsync, maxDelay=50ms)")
+    public CompletableFuture<String> testBatchWrapperAsync(long id) {
+        throw new UnsupportedOperationException();
+    }
+
+    private static CompletableFuture<List<String>> loadUsersAsync(Set<Long> ids) {
+        batchCalls.add(ids);
+        List<String> users = new ArrayList<>();
+        for (Long id : ids)
+            users.add("user" + id);
+        return CompletableFuture.completedFuture(users);
+    }
+
+    public static volatile Thread batchThread;
+
+    /**
+     * Targets all equal to each other, batched separately by identity.
+     */
+    public static class EqualTarget {
+        private final String name;
+
+        public EqualTarget(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @see BatchWrapper#wrap(Invocation)
+         */
+        @Wraps(clazz = BatchWrapper.class, method = "wrap(loadNames, maxDelay=50ms)")
+        public CompletableFuture<String> testBatchWrapperEqualTarget(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        private CompletableFuture<List<String>> loadNames(List<Long> ids) {
+            List<String> names = new ArrayList<>();
+            for (Long id : ids)
+                names.add(name + id);
+            return CompletableFuture.completedFuture(names);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof EqualTarget;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    /**
+     * Full batch dispatched without waiting for delay.
+     *
+     * @see BatchWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = BatchWrapper.class, method = "wrap(loadUsersAsyncFull, maxSize=2, maxDelay=1h)")
+    public CompletableFuture<String> testBatchWrapperAsyncFull(long id) {
+        throw new UnsupportedOperationException();
+    }
+
+    private static CompletableFuture<List<String>> loadUsersAsyncFull(Set<Long> ids) {
+        batchThread = Thread.currentThread();
+        return loadUsersAsync(ids);
+    }
+
+    /**
+     * @see ThrottleWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = ThrottleWrapper.class, method = "wrap(rate=10/s, burst=2)")
+    public int testThrottleRate(int x) {
+        return x;
+    }
+
+    /**
+     * @see ThrottleWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = ThrottleWrapper.class, method = "wrap(rate=20/s, wait=500ms)")
+    public int testThrottleRateWait(int x) {
+        return x;
+    }
+
+    /**
+     * @see ThrottleWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = ThrottleWrapper.class, method = "wrap(maxConcurrent=1)")
+    public String testThrottleConcurrent(CountDownLatch entered, CountDownLatch release) throws InterruptedException {
+        entered.countDown();
+        release.await();
+        return "done";
+    }
+
+    /**
+     * @see ThrottleWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = ThrottleWrapper.class, method = "wrap(rate=10/s, burst=2, maxConcurrent=1, wait=5s)")
+    public String testThrottleRateConcurrent(CountDownLatch entered, CountDownLatch release)
+            throws InterruptedException {
+        entered.countDown();
+        release.await();
+        return "done";
+    }
+
+    /**
+     * @see ThrottleWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = ThrottleWrapper.class, method = "wrap(maxConcurrent=1)")
+    public CompletableFuture<String> testThrottleAsync(CompletableFuture<String> future) {
+        return future;
+    }
+
+    public static final AtomicInteger hedgeCalls = new AtomicInteger();
+    public static final AtomicInteger hedgeInterrupts = new AtomicInteger();
+    public static volatile Thread hedgeThread;
+
+    /**
+     * The first call is slow until interrupted by the hedge.
+     *
+     * @see HedgeWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=50ms, interrupt)")
+    public int testHedge(int x) throws InterruptedException {
+        if (hedgeCalls.getAndIncrement() == 0) {
+            hedgeThread = Thread.currentThread();
+            sleepUntilInterrupted(5000);
+        }
+        return x;
+    }
+
+    /**
+     * The first call is slow, the hedge returns without interrupting it.
+     *
+     * @see HedgeWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=20ms)")
+    public int testHedgeNoInterrupt(int x) throws InterruptedException {
+        if (hedgeCalls.getAndIncrement() == 0)
+            sleepUntilInterrupted(1000);
+        return x;
+    }
+
+    /**
+     * @see HedgeWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=10ms, budget=1%)")
+    public int testHedgeBudget(int x) throws InterruptedException {
+        hedgeCalls.incrementAndGet();
+        sleepUntilInterrupted(60);
+        return x;
+    }
+
+    /**
+     * The slow call is slow only at the first time.
+     *
+     * @see HedgeWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=p90, interrupt=true)")
+    public int testHedgePercentile(int x, boolean slow) throws InterruptedException {
+        if (slow && hedgeCalls.getAndIncrement() == 0)
+            sleepUntilInterrupted(5000);
+        return x;
+    }
+
+    /**
+     * The first call returns future never completed.
+     *
+     * @see HedgeWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = HedgeWrapper.class, method = "wrap(delay=50ms)")
+    public CompletableFuture<String> testHedgeAsync(List<CompletableFuture<String>> returned) {
+        CompletableFuture<String> future = hedgeCalls.getAndIncrement() == 0 ?
+                new CompletableFuture<>() : CompletableFuture.completedFuture("x");
+        returned.add(future);
+        return future;
+    }
+
+    private static void sleepUntilInterrupted(long millis) throws InterruptedException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            hedgeInterrupts.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public static final AtomicInteger chainCalls = new AtomicInteger();
+
+    /**
+     * Adding 100 * x inside cache, and 10 * x outside.
+     *
+     * @see WrapMethods#wrapInvocation(Invocation)
+     * @see LRUCacheWrapper#wrap(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocation(10)")
+    @Wraps(clazz = LRUCacheWrapper.class, method = "wrap(10)")
+    @Wraps(clazz = WrapMethods.class, method = "wrapInvocation(100)")
+    public long testWrapsChain(int x, long y) {
+        chainCalls.incrementAndGet();
+        return x + y;
+    }
+
+    /**
+     * @see WrapMethods#wrapChainOrder(Invocation)
+     */
+    @Wraps(clazz = WrapMethods.class, method = "wrapChainOrder(a)")
+    @Wraps(clazz = WrapMethods.class, method = "wrapChainOrder(b)", sample = 0x1p-32)
+    @Wraps(clazz = WrapMethods.class, method = "wrapChainOrder(c)")
+    public static void testWrapsChainOrder(StringBuilder sb) {
+        sb.append("#inside");
+    }
 }
@@ -17,13 +17,19 @@
 
 package io.github.eshizhan.test;
 
+import io.github.eshizhan.funcwraps.Invocation;
 import io.github.eshizhan.funcwraps.ProceedMarker;
+import io.github.eshizhan.funcwraps.Weigher;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WrapMethods {
+    public static final AtomicInteger handleCount = new AtomicInteger();
+
     public static Object wrap(Method method, Object[] args, Object target) throws Throwable {
         System.out.println("### start");
         String test = "#start";
@@ -55,6 +61,11 @@ public class WrapMethods {
         return test;
     }
 
+    public Object wrapCopyPrimitive(Method method, Object[] args, Object target) throws Throwable {
+        long ret = ProceedMarker.proceed();
+        return ret * 10;
+    }
+
     public Object wrapWithCopyAndParams(Method method, Object[] args, Object target, String[] wrapParams) throws Throwable {
         System.out.println("### start");
         String test = "#start";
@@ -65,4 +76,59 @@ public class WrapMethods {
         test += Arrays.toString(wrapParams);
         return test;
     }
+
+    public static Object wrapHandle(MethodHandle method, Object[] args, Object target) throws Throwable {
+        System.out.println("### start");
+        String test = "#start";
+        Object ret = method.invoke(target, args);
+        test += ret;
+        System.out.println("### end");
+        test += "#end";
+        return test;
+    }
+
+    public static Object wrapHandleWithParams(MethodHandle method, Object[] args, Object target, String[] wrapParams)
+            throws Throwable {
+        System.out.println("### start");
+        String test = "#start";
+        Object ret = method.invoke(target, args);
+        test += ret;
+        System.out.println("### end");
+        test += "#end#";
+        test += Arrays.toString(wrapParams);
+        return test;
+    }
+
+    public static Object wrapHandleCount(MethodHandle method, Object[] args, Object target) throws Throwable {
+        handleCount.incrementAndGet();
+        return method.invoke(target, args);
+    }
+
+    public static void wrapInvocation(Invocation invocation) throws Throwable {
+        long ret = invocation.proceedLong();
+        int factor = Integer.parseInt(invocation.site().getWrapParams()[0]);
+        invocation.setLongResult(ret + invocation.intArg(0) * factor);
+    }
+
+    public static void wrapInvocationObject(Invocation invocation) throws Throwable {
+        Object ret = invocation.proceedObject();
+        if (invocation.site().getReturnType() != void.class)
+            invocation.setResult("#start" + ret + "#end");
+        else
+            ((StringBuilder) invocation.arg(0)).append("#end");
+    }
+
+    public static void wrapChainOrder(Invocation invocation) throws Throwable {
+        StringBuilder sb = (StringBuilder) invocation.arg(0);
+        sb.append('>').append(invocation.site().getWrapParams()[0]);
+        invocation.proceed();
+        sb.append('<').append(invocation.site().getWrapParams()[0]);
+    }
+
+    public static class LengthWeigher implements Weigher {
+        @Override
+        public long weigh(Object value) {
+            return ((String) value).length();
+        }
+    }
 }